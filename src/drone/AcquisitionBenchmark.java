@@ -0,0 +1,103 @@
+package drone;
+
+import math.Vector3;
+import sensors.BMP388;
+import sensors.BaroBatch;
+import sensors.BaroSignal;
+import sensors.BusTiming;
+import sensors.I2CBusArbiter;
+import sensors.ImuBatch;
+import sensors.ImuSample;
+import sensors.ImuSignal;
+import sensors.MPU6050;
+import sensors.SimulatedBus;
+
+/*
+Runs the IMU and barometer drivers against the simulated bus at 100 and 400kHz and prints how many IMU
+samples a second each acquisition path delivers and how busy it keeps the bus. The register path reads
+the latest sample per iteration, the FIFO path drains every sample queued since the last one. The
+arbiter runs repeat the register path with both devices behind an I2CBusArbiter and the barometer sampler
+competing for the bus from its own thread, then print the arbiter's per device statistics.
+ */
+public class AcquisitionBenchmark {
+    private static final long RUN_NANOS = 2_000_000_000L;
+
+    void main() throws InterruptedException {
+        System.out.println("bus       path        imu samples/s  iterations/s  bus busy");
+        for (var timing : new BusTiming[] {BusTiming.STANDARD_MODE, BusTiming.FAST_MODE}) {
+            String name = "%3.0fkHz".formatted(timing.clockHz() / 1000);
+            run(name, timing, false);
+            run(name, timing, true);
+        }
+
+        System.out.println();
+        for (var timing : new BusTiming[] {BusTiming.STANDARD_MODE, BusTiming.FAST_MODE})
+            runArbitrated("%.0fkHz".formatted(timing.clockHz() / 1000), timing);
+    }
+
+    private static void run(String name, BusTiming timing, boolean fifo) throws InterruptedException {
+        var bus = new SimulatedBus(timing);
+        try (var imu = new MPU6050(bus.mpu6050(ImuSignal.still()));
+             var baro = BMP388.withDefaults(bus.bmp388(BaroSignal.constant(101325)))) {
+            imu.calibrate(Vector3.K, MPU6050.QUICK_CALIBRATION_COUNT);
+            baro.configureNormalMode(BMP388.OutputDataRate.HZ_50);
+            baro.setFifoConfig(BMP388.FifoConfig.pressureAndTemperature());
+
+            var sample = new ImuSample();
+            var imuBatch = new ImuBatch(64);
+            var baroBatch = new BaroBatch(BMP388.FIFO_FRAMES);
+            if (fifo) imu.enableFifo();
+
+            long samples = 0, iterations = 0, lastBaro = System.nanoTime();
+            long busyBefore = bus.busyNanos();
+            long start = System.nanoTime(), now = start;
+            while (now - start < RUN_NANOS) {
+                if (fifo) {
+                    samples += imu.readFifo(imuBatch);
+                } else {
+                    imu.read(sample);
+                    samples++;
+                }
+                // the barometer shares the bus, drained at 50Hz like MainLoop's FIFO path
+                if (now - lastBaro >= 20_000_000L) {
+                    baro.readFifo(baroBatch);
+                    lastBaro = now;
+                }
+                iterations++;
+                now = System.nanoTime();
+            }
+
+            double seconds = (now - start) / 1e9;
+            System.out.printf("%-9s %-10s  %13.0f  %12.0f  %7.0f%%%n", name, fifo ? "fifo" : "register",
+                    samples / seconds, iterations / seconds, 100 * (bus.busyNanos() - busyBefore) / 1e9 / seconds);
+        }
+    }
+
+    // register path with the sampler in the background like MainLoop, the statistics include the setup
+    private static void runArbitrated(String name, BusTiming timing) throws InterruptedException {
+        var bus = new SimulatedBus(timing);
+        try (var arbiter = new I2CBusArbiter(name);
+             var imu = new MPU6050(arbiter.attach("mpu6050", bus.mpu6050(ImuSignal.still()), I2CBusArbiter.Priority.HIGH));
+             var baro = BMP388.withDefaults(arbiter.attach("bmp388", bus.bmp388(BaroSignal.constant(101325)),
+                     I2CBusArbiter.Priority.NORMAL))) {
+            imu.calibrate(Vector3.K, MPU6050.QUICK_CALIBRATION_COUNT);
+            baro.configureNormalMode(BMP388.OutputDataRate.HZ_50);
+            baro.startSampler();
+
+            var sample = new ImuSample();
+            long samples = 0, busyBefore = arbiter.total().busyNanos();
+            long start = System.nanoTime(), now = start;
+            while (now - start < RUN_NANOS) {
+                imu.read(sample);
+                samples++;
+                now = System.nanoTime();
+            }
+
+            double seconds = (now - start) / 1e9;
+            System.out.printf("%s arbiter, register path: %.0f imu samples/s, bus busy %.0f%%%n", name,
+                    samples / seconds, 100 * (arbiter.total().busyNanos() - busyBefore) / 1e9 / seconds);
+            for (var device : arbiter.devices())
+                System.out.println("  " + device);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package drone;
+
+import math.MutableQuaternion;
+import math.MutableVector3;
+
+import java.util.Random;
+
+import static java.lang.Math.*;
+
+/*
+Compares MainLoop's old attitude error (rotate K and a diagonal by the error quaternion, then three atan2)
+against MutableQuaternion.errorVector on random target/current pairs. Prints the largest difference per
+error size and ns per computation for both.
+ */
+public class AttitudeErrorBenchmark {
+    private static final int PAIRS = 1 << 16;
+    private static final int ROUNDS = 200;
+    private static final double[] MAX_ANGLES_DEG = {1, 5, 10, 20, 45};
+
+    private static final MutableQuaternion QUAD_FRAME = new MutableQuaternion().setAxisAngle(PI / 4, 0, 0, 1);
+
+    void main() {
+        var random = new Random(14);
+
+        // the forms agree to first order, the difference is the second order coupling between axes
+        System.out.println("max angle (deg)  max diff (deg)  diff / angle");
+        for (double maxAngle : MAX_ANGLES_DEG) {
+            var pairs = pairs(random, toRadians(maxAngle));
+            var a = new double[3];
+            var b = new double[3];
+            double maxDiff = 0;
+            for (int i = 0; i < PAIRS; i++) {
+                atan2Form(pairs, i, a);
+                vectorForm(pairs, i, b);
+                for (int k = 0; k < 3; k++) {
+                    maxDiff = max(maxDiff, abs(a[k] - b[k]));
+                }
+            }
+            System.out.printf("%15.0f  %14.5f  %12.5f%n", maxAngle, toDegrees(maxDiff), maxDiff / toRadians(maxAngle));
+        }
+
+        var pairs = pairs(random, toRadians(20));
+        var out = new double[3];
+        for (int warmup = 0; warmup < 5; warmup++) {
+            time(pairs, out, true);
+            time(pairs, out, false);
+        }
+        System.out.printf("atan2 form      %6.1f ns%n", time(pairs, out, true));
+        System.out.printf("vector part     %6.1f ns%n", time(pairs, out, false));
+    }
+
+    private static double time(double[] pairs, double[] out, boolean atan2) {
+        double sink = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < PAIRS; i++) {
+                if (atan2) atan2Form(pairs, i, out);
+                else vectorForm(pairs, i, out);
+                sink += out[0];
+            }
+        }
+        double ns = (System.nanoTime() - start) / (double) (ROUNDS * PAIRS);
+        if (sink == 42) System.out.println(); // keeps the loop alive
+        return ns;
+    }
+
+    // target and current, 8 doubles per pair, current a random rotation and target within maxAngle of it
+    private static double[] pairs(Random random, double maxAngle) {
+        var pairs = new double[PAIRS * 8];
+        var current = new MutableQuaternion();
+        var offset = new MutableQuaternion();
+        var target = new MutableQuaternion();
+        for (int i = 0; i < PAIRS; i++) {
+            current.set(random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+            double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+            double n = sqrt(x * x + y * y + z * z);
+            offset.setAxisAngle(random.nextDouble() * maxAngle, x / n, y / n, z / n);
+            target.mul(offset, current);
+
+            int o = i * 8;
+            pairs[o] = target.x0; pairs[o + 1] = target.x1; pairs[o + 2] = target.x2; pairs[o + 3] = target.x3;
+            pairs[o + 4] = current.x0; pairs[o + 5] = current.x1; pairs[o + 6] = current.x2; pairs[o + 7] = current.x3;
+        }
+        return pairs;
+    }
+
+    private static final MutableQuaternion target = new MutableQuaternion(), current = new MutableQuaternion();
+    private static final MutableQuaternion error = new MutableQuaternion();
+    private static final MutableVector3 rotK = new MutableVector3(), rotIJ = new MutableVector3();
+
+    private static void load(double[] pairs, int i) {
+        int o = i * 8;
+        target.set(pairs[o], pairs[o + 1], pairs[o + 2], pairs[o + 3]);
+        current.set(pairs[o + 4], pairs[o + 5], pairs[o + 6], pairs[o + 7]);
+    }
+
+    // what MainLoop did before, out is roll, pitch, yaw. Its roll had the opposite sign of a rotation about +x,
+    // MainLoop now deliberately uses +x, so it's negated here to compare against that
+    private static void atan2Form(double[] pairs, int i, double[] out) {
+        load(pairs, i);
+        error.mulConj(target, current).preMul(QUAD_FRAME);
+        rotK.set(0, 0, 1).rotate(error);
+        rotIJ.set(sqrt(2) / 2, -sqrt(2) / 2, 0).rotate(error);
+        out[0] = -atan2(rotK.y, rotK.z);
+        out[1] = atan2(rotK.x, rotK.z);
+        out[2] = atan2(rotIJ.y, rotIJ.x);
+    }
+
+    // MainLoop's mapping, roll, pitch and yaw are the error vector's x, y and z as they are
+    private static void vectorForm(double[] pairs, int i, double[] out) {
+        load(pairs, i);
+        error.mulConj(target, current).preMul(QUAD_FRAME);
+        error.mulConj(error, QUAD_FRAME).errorVector(rotK);
+        out[0] = rotK.x;
+        out[1] = rotK.y;
+        out[2] = rotK.z;
+    }
+}
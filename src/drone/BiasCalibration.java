@@ -0,0 +1,45 @@
+package drone;
+
+import math.Vector3;
+import sensors.ImuSample;
+import sensors.MPU6050;
+import sensors.TemperatureBiasTable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static drone.DroneConstants.*;
+
+/*
+Measures the IMU's temperature bias table for MainLoop. Leave the quad level and untouched from cold, it
+reads for -DbiasMinutes (20 by default) while the board warms up, ideally with the Pi loaded or the motors'
+ESCs powered so it reaches flight temperatures, then writes the table to IMU_BIAS_TABLE.
+ */
+public class BiasCalibration {
+    private static final long DURATION_NANOS = Long.getLong("biasMinutes", 20) * 60_000_000_000L;
+    private static final double STEP = 2; // C per table entry
+
+    void main() throws InterruptedException, IOException {
+        try (var imu = new MPU6050(1)) {
+            var fitter = new TemperatureBiasTable.Fitter(Vector3.K, STEP);
+            imu.recordBias(fitter);
+
+            var sample = new ImuSample();
+            long start = System.nanoTime(), lastReport = start, now = start;
+            while (now - start < DURATION_NANOS) {
+                imu.read(sample);
+                if (now - lastReport >= 10_000_000_000L) {
+                    System.out.printf("%3.0fs  %5.2fC  %d samples  %s%n", (now - start) / 1e9, sample.temperature,
+                            fitter.samples(), imu.noise().stationary() ? "still" : "MOVING");
+                    lastReport = now;
+                }
+                Thread.sleep(1);
+                now = System.nanoTime();
+            }
+
+            var table = fitter.fit();
+            table.save(Path.of(IMU_BIAS_TABLE));
+            System.out.println("wrote " + table + " to " + IMU_BIAS_TABLE);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package drone;
 
+import math.MathMode;
+import math.PIDBank;
+import pose.AttitudeEstimator;
+
 /*
 Drone Axis:
 z  x
@@ -24,4 +28,38 @@ public class DroneConstants {
     public static final int BACK_RIGHT_GPIO = 13;
     public static final int BACK_LEFT_GPIO = 23;
     public static final int FRONT_RIGHT_GPIO = 12;
+
+    // override with -Destimator=MADGWICK etc.
+    public static final AttitudeEstimator.Type ATTITUDE_ESTIMATOR =
+            AttitudeEstimator.Type.valueOf(System.getProperty("estimator", "COMPLEMENTARY"));
+
+    // -DimuFifo=true drains every IMU sample from the FIFO each iteration instead of reading the latest one
+    public static final boolean IMU_FIFO = Boolean.getBoolean("imuFifo");
+
+    // -DbaroFifo=true drains the barometer's FIFO once per baro tick instead of running the sampler thread
+    public static final boolean BARO_FIFO = Boolean.getBoolean("baroFifo");
+
+    // -DimuBiasTable=path loads the IMU's temperature bias table at startup, BiasCalibration writes it
+    public static final String IMU_BIAS_TABLE = System.getProperty("imuBiasTable", "mpu6050-bias.txt");
+
+    // control loop schedule, the loop ticks at the IMU rate and the other rates have to divide it
+    public static final double IMU_RATE = 1000;
+    public static final double BARO_RATE = 50;
+    public static final double TELEMETRY_RATE = 100;
+
+    // -DimuInterruptGpio=n waits for the IMU's data ready pin on GPIO n each iteration instead of free running,
+    // -DimuInterruptGpio=sim fakes the pin at the sample rate
+    public static final String IMU_INTERRUPT_GPIO = System.getProperty("imuInterruptGpio");
+
+    // trig and inverse sqrt in the estimators and attitude controller, -Dmath=FAST for the FastMath polynomials
+    public static final MathMode MATH = MathMode.valueOf(System.getProperty("math", "EXACT"));
+
+    // cascaded attitude gains, angle loops in (rad/s)/rad and rate loops in motor power per rad/s
+    private static final PIDBank.AxisGains TILT_GAINS = new PIDBank.AxisGains(
+            PIDBank.Gains.of(4, 0, 0),
+            PIDBank.Gains.of(0.125, 0.05, 0.002).withDCutoff(30).withLimits(0.05, 0.3));
+    public static final PIDBank.GainSet ATTITUDE_GAINS = new PIDBank.GainSet(TILT_GAINS, TILT_GAINS,
+            new PIDBank.AxisGains(
+                    PIDBank.Gains.of(2, 0, 0),
+                    PIDBank.Gains.of(0.2, 0.05, 0).withLimits(0.05, 0.2)));
 }
@@ -0,0 +1,124 @@
+package drone;
+
+import math.MutableQuaternion;
+import math.MutableVector3;
+import pose.AttitudeEstimator;
+
+import java.util.Random;
+
+import static java.lang.Math.*;
+import static sensors.MPU6050.G;
+
+/*
+Runs every AttitudeEstimator over the same synthetic flight and prints ns/update and attitude error.
+Gyro gets a constant bias plus noise and the accel sees wobble from the motors, so the error numbers
+show how well each filter rejects both.
+ */
+public class EstimatorBenchmark {
+    private static final double DT = 0.001;
+    private static final int SAMPLES = 200_000; // 200s at 1kHz
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final double GYRO_NOISE = 0.05 * PI / 180;
+    private static final double GYRO_BIAS = 0.5 * PI / 180;
+    private static final double ACCEL_NOISE = 0.784;
+
+    void main() {
+        var flight = new Flight(new Random(5));
+
+        System.out.println("estimator      ns/update  tilt rms (deg)  tilt max (deg)  total rms (deg)");
+        for (var type : AttitudeEstimator.Type.values()) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                run(type, flight, false);
+            }
+            run(type, flight, true);
+        }
+    }
+
+    private static void run(AttitudeEstimator.Type type, Flight flight, boolean report) {
+        // accuracy pass, checked against the truth every sample
+        var estimator = type.create();
+        double tiltSum = 0, tiltMax = 0, totalSum = 0;
+        var truth = new MutableQuaternion();
+        var trueUp = new MutableVector3();
+        var estimatedUp = new MutableVector3();
+        var relative = new MutableQuaternion();
+        var inverse = new MutableQuaternion();
+
+        for (int i = 0; i < SAMPLES; i++) {
+            int o = i * 6;
+            estimator.update(DT, flight.imu[o], flight.imu[o + 1], flight.imu[o + 2], flight.imu[o + 3], flight.imu[o + 4], flight.imu[o + 5]);
+
+            var q = estimator.orientation();
+            truth.set(flight.truth[i * 4], flight.truth[i * 4 + 1], flight.truth[i * 4 + 2], flight.truth[i * 4 + 3]);
+
+            // tilt compares world up as seen from the body, which ignores unobservable yaw
+            trueUp.set(0, 0, 1).rotate(inverse.set(truth).conj());
+            estimatedUp.set(0, 0, 1).rotate(inverse.set(q).conj());
+            double tilt = acos(min(1, max(-1, trueUp.dot(estimatedUp))));
+            double total = 2 * acos(min(1, abs(relative.mulConj(truth, q).x0)));
+
+            tiltSum += tilt * tilt;
+            totalSum += total * total;
+            tiltMax = max(tiltMax, tilt);
+        }
+
+        // timing pass, nothing but updates
+        var timed = type.create();
+        long start = System.nanoTime();
+        for (int i = 0; i < SAMPLES; i++) {
+            int o = i * 6;
+            timed.update(DT, flight.imu[o], flight.imu[o + 1], flight.imu[o + 2], flight.imu[o + 3], flight.imu[o + 4], flight.imu[o + 5]);
+        }
+        double nsPerUpdate = (System.nanoTime() - start) / (double) SAMPLES;
+
+        if (report) {
+            System.out.printf("%-14s %9.1f  %14.3f  %14.3f  %15.3f%n", type, nsPerUpdate,
+                    toDegrees(sqrt(tiltSum / SAMPLES)), toDegrees(tiltMax), toDegrees(sqrt(totalSum / SAMPLES)));
+        }
+    }
+
+    // precomputed so every estimator sees identical samples and generation isn't timed
+    private static class Flight {
+        final double[] imu = new double[SAMPLES * 6]; // gx gy gz ax ay az
+        final double[] truth = new double[SAMPLES * 4];
+
+        Flight(Random random) {
+            var q = new MutableQuaternion();
+            var step = new MutableQuaternion();
+            var gravity = new MutableVector3();
+            var inverse = new MutableQuaternion();
+
+            for (int i = 0; i < SAMPLES; i++) {
+                double t = i * DT;
+
+                // slow swaying roll and pitch with some yaw, up to ~30 degrees
+                double wx = 0.9 * sin(2 * PI * 0.25 * t);
+                double wy = 0.7 * sin(2 * PI * 0.4 * t + 1);
+                double wz = 0.3 * sin(2 * PI * 0.1 * t);
+
+                double rate = sqrt(wx * wx + wy * wy + wz * wz);
+                if (rate == 0) step.setIdentity();
+                else step.setAxisAngle(rate * DT, wx / rate, wy / rate, wz / rate);
+                q.mul(step).normalize();
+
+                // specific force at rest is +G up, seen in the body frame
+                inverse.set(q).conj();
+                gravity.set(0, 0, G).rotate(inverse);
+
+                int o = i * 6;
+                imu[o] = wx + GYRO_BIAS + random.nextGaussian() * GYRO_NOISE;
+                imu[o + 1] = wy - GYRO_BIAS + random.nextGaussian() * GYRO_NOISE;
+                imu[o + 2] = wz + random.nextGaussian() * GYRO_NOISE;
+                imu[o + 3] = gravity.x + random.nextGaussian() * ACCEL_NOISE + 0.5 * sin(2 * PI * 80 * t);
+                imu[o + 4] = gravity.y + random.nextGaussian() * ACCEL_NOISE;
+                imu[o + 5] = gravity.z + random.nextGaussian() * ACCEL_NOISE;
+
+                truth[i * 4] = q.x0;
+                truth[i * 4 + 1] = q.x1;
+                truth[i * 4 + 2] = q.x2;
+                truth[i * 4 + 3] = q.x3;
+            }
+        }
+    }
+}
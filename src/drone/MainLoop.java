@@ -1,87 +1,235 @@
 package drone;
 
-import math.PID;
-import math.Quaternion;
+import math.MutableQuaternion;
+import math.MutableVector3;
+import math.PIDBank;
 import math.Vector3;
 import sensors.BMP388;
+import sensors.BaroBatch;
+import sensors.DataReadySignal;
+import sensors.I2CBusArbiter;
+import sensors.I2CRegisterDevice;
+import sensors.ImuBatch;
+import sensors.ImuSample;
 import sensors.MPU6050;
+import sensors.TemperatureBiasTable;
 import pose.AltitudeFuser;
-import pose.Orientation;
+import pose.AttitudeEstimator;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
-import java.time.Duration;
-import java.time.Instant;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static drone.DroneConstants.*;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
 
 public class MainLoop {
-
     void main() throws InterruptedException, IOException {
         System.out.println("started");
+        // both sensors share controller 1, the bus thread runs their transactions with the IMU's reads first
         try(
-            var baro = BMP388.withDefaults(1);
-            var imu = new MPU6050(1);
-            var fr = new Motor(FRONT_LEFT_GPIO, 1.1);
-            var bl = new Motor(BACK_RIGHT_GPIO, 1.1)) {
-            Orientation ori = new Orientation();
-            imu.calibrate(Vector3.K);
+            var bus = new I2CBusArbiter("1");
+            var baro = BMP388.withDefaults(bus.attach("bmp388",
+                    I2CRegisterDevice.open(1, BMP388.SLAVE_ADDRESS), I2CBusArbiter.Priority.NORMAL));
+            var imu = new MPU6050(bus.attach("mpu6050",
+                    I2CRegisterDevice.open(1, MPU6050.DEFAULT_ADDRESS), I2CBusArbiter.Priority.HIGH));
+            var dataReady = openDataReady(imu);
+            var fl = new Motor(FRONT_LEFT_GPIO, 1.1);
+            var fr = new Motor(FRONT_RIGHT_GPIO, 1.1);
+            var bl = new Motor(BACK_LEFT_GPIO, 1.1);
+            var br = new Motor(BACK_RIGHT_GPIO, 1.1)) {
+            AttitudeEstimator ori = ATTITUDE_ESTIMATOR.create();
+            // bias drift with die temperature from a table measured once, calibrate then only finds what it misses
+            var biasTable = Path.of(IMU_BIAS_TABLE);
+            if (Files.exists(biasTable)) {
+                imu.setBiasTable(TemperatureBiasTable.load(biasTable));
+                System.out.println("loaded " + biasTable);
+            }
+            if (ori.estimatesGyroBias())
+                imu.calibrate(Vector3.K, MPU6050.QUICK_CALIBRATION_COUNT); // bias is tracked online
+            else
+                imu.calibrate(Vector3.K);
             var af = new AltitudeFuser();
 
-            PID balancePitch = new PID(0.5, 0, 0);
+            // the barometer converts on its own, either a background thread picks the results up or they queue
+            // in the FIFO and get drained by the baro task
+            BMP388.Reading lastBarometerReading = null;
+            BaroBatch baroBatch = null;
+            double altitudeDt = 0;
+            if (BARO_FIFO) {
+                baro.configureNormalMode(BMP388.OutputDataRate.HZ_200);
+                baro.setFifoConfig(BMP388.FifoConfig.pressureAndTemperature());
+                baroBatch = new BaroBatch(BMP388.FIFO_FRAMES);
+            } else {
+                baro.configureNormalMode(BMP388.OutputDataRate.HZ_50);
+                baro.startSampler();
+            }
+
+            var attitude = new PIDBank(ATTITUDE_GAINS);
+            var mixer = MotorMixer.quadX(Math.PI/4, fl, fr, bl, br); // same frame as quadFrameTransform
+            var angleError = new double[3];
+            var quadRates = new double[3];
+            var attitudeOutput = new double[3];
 
             ori.initFromAccel(imu.read().accel());
-            Quaternion targetOri = ori.orientation;
+            var targetOri = new MutableQuaternion().set(ori.orientation());
+
+            // scratch for the error computation, reused every iteration
+            var quadFrameTransform = new MutableQuaternion().setAxisAngle(Math.PI/4, 0, 0, 1).normalize();
+            var oriError = new MutableQuaternion();
+            var errorVector = new MutableVector3();
+            var rotK = new MutableVector3();
+            var gyro = new MutableVector3();
+
+            var imuSample = new ImuSample();
+            ImuBatch imuBatch = null;
+            if (IMU_FIFO) {
+                imu.enableFifo();
+                imuBatch = new ImuBatch(64);
+            }
+
+            // the loop ticks at the IMU rate, the slower tasks run on staggered ticks in between
+            var scheduler = new Scheduler(IMU_RATE);
+            int imuTask = scheduler.add("imu", IMU_RATE);
+            int baroTask = scheduler.add("baro", BARO_RATE);
+            int telemetryTask = scheduler.add("telemetry", TELEMETRY_RATE);
+            int busStatsTask = scheduler.add("bus stats", 1);
+            System.out.println(scheduler);
+            long lastBusBusy = bus.total().busyNanos();
 
             System.out.println("started");
-            Instant lastUpdate = Instant.now();
 
             var socket = DatagramChannel.open();
             var addr = new InetSocketAddress("10.42.42.2", 4444);
+            var bb = ByteBuffer.wrap(new byte[56]).order(LITTLE_ENDIAN);
 
-//            fr.arm();
-//            bl.arm();
+//            mixer.arm();
 
             while(!Thread.interrupted()) {
-                var now = Instant.now();
-                var dt = Duration.between(lastUpdate, now).toNanos() / 1.e9;
-                var imuReading = imu.read();
-                var barometerReading = baro.read();
-
-                ori.update(dt, imuReading.gyro(), imuReading.accel(), 0);
-                af.update(dt, ori.globalAccel.z(), imuReading.accelVariance().rotatedBy(ori.orientation).z(), barometerReading.altitude(), barometerReading.altitudeVariance());
-
-                var oriError = targetOri.mul(ori.orientation.conj());
-                var quadFrameTransform = Quaternion.fromAxisAngle(Math.PI/4, Vector3.of(0, 0, 1)).normalized();
-                oriError = quadFrameTransform.mul(oriError);
-                //Vector3 errorAngles = Quaternion.decompose(oriError);
-                Vector3 rotK = Vector3.K.rotatedBy(oriError);
-                Vector3 rotIJ = Vector3.of(Math.sqrt(2)/2, -Math.sqrt(2)/2, 0).rotatedBy(oriError);
-                // System.out.println(rotI);
-                double pitchError = Math.atan2(rotK.x(), rotK.z());
-                double rollError = Math.atan2(rotK.y(), rotK.z());
-                double yawError = Math.atan2(rotIJ.y(), rotIJ.x());
+                // with the data ready pin the loop sleeps until a fresh sample and times it by the edge
+                if (dataReady != null)
+                    scheduler.tick(dataReady.await());
+                else
+                    scheduler.awaitTick();
+                var dt = scheduler.dt(imuTask);
+
+                // the live noise estimate for the estimators that weigh the sensors by it
+                var noise = imu.noise();
+                ori.setSensorVariances(noise.gyroVariance(0), noise.gyroVariance(1), noise.gyroVariance(2),
+                        noise.accelVariance(0), noise.accelVariance(1), noise.accelVariance(2));
+
+                if (imuBatch != null) {
+                    // every sample since the last iteration from one burst read, at the sensor's own dt
+                    int n = imu.readFifo(imuBatch);
+                    for (int i = 0; i < n; i++) {
+                        ori.update(imuBatch.dt(), imuBatch.gx[i], imuBatch.gy[i], imuBatch.gz[i], imuBatch.ax[i], imuBatch.ay[i], imuBatch.az[i]);
+                    }
+                    if (n > 0) gyro.set(imuBatch.gx[n - 1], imuBatch.gy[n - 1], imuBatch.gz[n - 1]);
+                } else {
+                    imu.read(imuSample);
+                    ori.update(dt, imuSample.gx, imuSample.gy, imuSample.gz, imuSample.ax, imuSample.ay, imuSample.az);
+                    gyro.set(imuSample.gx, imuSample.gy, imuSample.gz);
+                }
+
+                if (scheduler.due(baroTask)) {
+                    // live per axis accel noise carried to world z, var(z) = sum of R[2][i]^2 var(i)
+                    var r = ori.rotation();
+                    double verticalAccelVariance = r.m20 * r.m20 * noise.accelVariance(0)
+                            + r.m21 * r.m21 * noise.accelVariance(1) + r.m22 * r.m22 * noise.accelVariance(2);
+                    altitudeDt += scheduler.dt(baroTask);
+                    if (baroBatch == null) {
+                        // fuse once per new barometer sample so a reading is never counted twice
+                        var barometerReading = baro.tryLatest();
+                        if (barometerReading != null && barometerReading != lastBarometerReading) {
+                            af.update(altitudeDt, ori.globalAccel().z, verticalAccelVariance, barometerReading.altitude(), barometerReading.altitudeVariance());
+                            lastBarometerReading = barometerReading;
+                            altitudeDt = 0;
+                        }
+                    } else {
+                        // the samples since the last run averaged into one measurement, n samples of independent noise
+                        int n = baro.readFifo(baroBatch);
+                        if (n > 0) {
+                            double pressure = 0;
+                            for (int i = 0; i < n; i++) pressure += baroBatch.pressure[i];
+                            pressure /= n;
+                            af.update(altitudeDt, ori.globalAccel().z, verticalAccelVariance,
+                                    baro.altitude(pressure), baro.altitudeVariance(pressure, baro.pressureVariance() / n));
+                            altitudeDt = 0;
+                        }
+                    }
+                }
+
+                // global error expressed in the 45 degree quad frame, F (target current') F'
+                oriError.mulConj(targetOri, ori.orientation()).preMul(quadFrameTransform);
+                oriError.mulConj(oriError, quadFrameTransform);
+                //Vector3 errorAngles = Quaternion.decompose(oriError.toQuaternion());
+                // every axis is the rotation still needed about +x, +y, +z, the same sign as the gyro rate fed next to it,
+                // so PIDBank's rate setpoint Kp * error pushes towards the target and the mixer's +roll is +x torque.
+                // pitch and yaw match the old atan2 of K and the diagonal rotated by the error to small angles, roll is
+                // deliberately the opposite sign of its atan2(K.y, K.z), see AttitudeErrorBenchmark
+                oriError.errorVector(errorVector);
+                double pitchError = errorVector.y;
+                double rollError = errorVector.x;
+                double yawError = errorVector.z;
+
                 //System.out.println(ori.orientation);]
                 //System.out.println(targetOri);
-                var correction = balancePitch.correction(dt, rollError);
+                // gyro into the same 45 degree quad frame as the errors
+                gyro.rotate(quadFrameTransform);
+                angleError[PIDBank.ROLL] = rollError;
+                angleError[PIDBank.PITCH] = pitchError;
+                angleError[PIDBank.YAW] = yawError;
+                quadRates[PIDBank.ROLL] = gyro.x;
+                quadRates[PIDBank.PITCH] = gyro.y;
+                quadRates[PIDBank.YAW] = gyro.z;
+                attitude.update(dt, angleError, quadRates, attitudeOutput);
+
+                var correction = attitudeOutput[PIDBank.ROLL];
                 double throttle = 0.3;
-//                fr.setPower(throttle + correction);
-//                bl.setPower(throttle - correction);
-                System.out.printf("dt:%3.3f, err:%3.3f, corr:%3.3f\n", dt, rollError, correction);
-
-                var bytes = new byte[56];
-                var bb = ByteBuffer.wrap(bytes);
-                bb.put(ori.orientation.asBytes());
-                bb.put(rotK.toBytes());
-                bb.flip();
-                socket.send(bb, addr);
-                //System.out.printf("%3.3f,%3.3f,%3.3f%n", barometerReading.altitude(), af.altitude(), af.verticalVelocity());
-
-                lastUpdate = now;
+                mixer.mix(throttle, attitudeOutput[PIDBank.ROLL], attitudeOutput[PIDBank.PITCH], attitudeOutput[PIDBank.YAW]);
+//                mixer.write();
+
+                if (scheduler.due(telemetryTask)) {
+                    System.out.printf("dt:%3.3f, err:%3.3f, corr:%3.3f\n", dt, rollError, correction);
+
+                    // K rotated by the error
+                    double e0 = oriError.x0, e1 = oriError.x1, e2 = oriError.x2, e3 = oriError.x3;
+                    rotK.set(2 * (e1 * e3 + e0 * e2), 2 * (e2 * e3 - e0 * e1), e0 * e0 - e1 * e1 - e2 * e2 + e3 * e3);
+
+                    bb.clear();
+                    ori.orientation().writeTo(bb);
+                    rotK.writeTo(bb);
+                    bb.flip();
+                    socket.send(bb, addr);
+                    //System.out.printf("%3.3f,%3.3f,%3.3f%n", af.altitude(), af.verticalVelocity(), altitudeDt);
+                }
+
+                if (scheduler.due(busStatsTask)) {
+                    // share of the last second the bus was held, the loop's I2C budget
+                    long busBusy = bus.total().busyNanos();
+                    if (scheduler.dt(busStatsTask) > 0)
+                        System.out.printf("bus busy %.1f%%%n", 100 * (busBusy - lastBusBusy) / 1e9 / scheduler.dt(busStatsTask));
+                    lastBusBusy = busBusy;
+                    for (var device : bus.devices())
+                        System.out.println(device);
+                    if (baro.samplerErrors() > 0)
+                        System.out.println("bmp388 sampler errors " + baro.samplerErrors() + ", last " + baro.lastSamplerError());
+                }
             }
         }
     }
 
+    // null when the loop free runs, try-with-resources skips it then
+    private static DataReadySignal openDataReady(MPU6050 imu) {
+        if (IMU_INTERRUPT_GPIO == null)
+            return null;
+
+        imu.enableDataReadyInterrupt();
+        if (IMU_INTERRUPT_GPIO.equals("sim"))
+            return DataReadySignal.simulated(imu.sampleRate()).start();
+        return DataReadySignal.gpio(Integer.parseInt(IMU_INTERRUPT_GPIO));
+    }
 }
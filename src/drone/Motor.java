@@ -7,6 +7,7 @@ public class Motor implements AutoCloseable {
     private final double minDutyCycleMs;
 
     private boolean armed = false;
+    private long lastPulseMicros = -1; // last width written, so unchanged outputs skip the PWM write
 
     public Motor(int gpio, double minDutyCycleMs) {
         servo = new PwmServo(gpio, 1f, 50);
@@ -19,20 +20,23 @@ public class Motor implements AutoCloseable {
         servo.setPulseWidthMs(2f);
         Thread.sleep(1000);
         servo.setPulseWidthMs(1f);
+        lastPulseMicros = 1000;
         armed = true;
     }
 
+    // power is clamped to [0, 1] (NaN counts as 0), MotorMixer already keeps it in range
     public synchronized void setPower(double power) {
-        if (power < 0 || power > 1) {
-            System.out.println("skibidi toilet");
-            return;
-        }
-            //throw new IllegalArgumentException("!(0 <= power <= 1)");
-
         if (!armed)
             throw new IllegalArgumentException("motor must be armed first");
 
-        servo.setPulseWidthMs((float) (minDutyCycleMs + (2 - minDutyCycleMs) * power));
+        power = power > 0 ? Math.min(power, 1) : 0;
+
+        // ESCs resolve about a microsecond, smaller changes aren't worth a write
+        long micros = Math.round((minDutyCycleMs + (2 - minDutyCycleMs) * power) * 1000);
+        if (micros == lastPulseMicros) return;
+
+        servo.setPulseWidthMs(micros / 1000f);
+        lastPulseMicros = micros;
     }
 
     @Override
@@ -0,0 +1,106 @@
+package drone;
+
+/*
+Maps collective thrust and roll/pitch/yaw commands (all in motor power units) to the four motors. The mixing
+factors come from the frame geometry once, at construction:
+
+    roll  factor = y position  (torque about x is y * F)
+    pitch factor = -x position (torque about y is -x * F)
+    yaw   factor = spin, +1 for rotors whose drag torque turns the frame +z
+
+Airmode style desaturation: when the attitude part alone needs more than the [0, 1] power range it's scaled
+down to fit, otherwise thrust is shifted so every motor stays in range. Attitude authority is never dropped
+for the sake of thrust.
+ */
+public class MotorMixer {
+    public static final int FRONT_LEFT = 0, FRONT_RIGHT = 1, BACK_LEFT = 2, BACK_RIGHT = 3;
+
+    private final Motor[] motors;
+    private final double[] rollMix = new double[4], pitchMix = new double[4], yawMix = new double[4];
+    private final double[] power = new double[4];
+
+    /*
+    Quad X with motors in FRONT_LEFT, FRONT_RIGHT, BACK_LEFT, BACK_RIGHT order. frameRotation (rad) is the
+    yaw of the control frame relative to the body frame, e.g. pi / 4 when the errors are taken along the
+    diagonals like MainLoop's quadFrameTransform. Front left and back right spin the same way.
+     */
+    public static MotorMixer quadX(double frameRotation, Motor frontLeft, Motor frontRight, Motor backLeft, Motor backRight) {
+        double d = Math.PI / 4;
+        return new MotorMixer(
+                new Motor[] {frontLeft, frontRight, backLeft, backRight},
+                new double[] {d - frameRotation, -d - frameRotation, 3 * d - frameRotation, -3 * d - frameRotation},
+                new int[] {1, -1, -1, 1});
+    }
+
+    // arm angles are measured from +x towards +y in the control frame
+    public MotorMixer(Motor[] motors, double[] armAngles, int[] spin) {
+        if (motors.length != 4 || armAngles.length != 4 || spin.length != 4)
+            throw new IllegalArgumentException("expected 4 motors");
+
+        this.motors = motors.clone();
+
+        double maxRoll = 0, maxPitch = 0;
+        for (int i = 0; i < 4; i++) {
+            rollMix[i] = Math.sin(armAngles[i]);
+            pitchMix[i] = -Math.cos(armAngles[i]);
+            yawMix[i] = spin[i];
+            maxRoll = Math.max(maxRoll, Math.abs(rollMix[i]));
+            maxPitch = Math.max(maxPitch, Math.abs(pitchMix[i]));
+        }
+
+        // a full roll or pitch command moves the furthest motor by exactly that much
+        for (int i = 0; i < 4; i++) {
+            rollMix[i] = clean(rollMix[i] / maxRoll);
+            pitchMix[i] = clean(pitchMix[i] / maxPitch);
+        }
+    }
+
+    // drops the 1e-17 leftovers of sin/cos so motors on an axis get exactly 0 from it
+    private static double clean(double factor) {
+        return Math.abs(factor) < 1e-9 ? 0 : factor;
+    }
+
+    public void arm() throws InterruptedException {
+        for (var motor : motors) motor.arm();
+    }
+
+    // computes the four motor powers, see power(int), write() sends them
+    public void mix(double thrust, double roll, double pitch, double yaw) {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < 4; i++) {
+            double p = roll * rollMix[i] + pitch * pitchMix[i] + yaw * yawMix[i];
+            power[i] = p;
+            min = Math.min(min, p);
+            max = Math.max(max, p);
+        }
+
+        double range = max - min;
+        if (range != range) {
+            // NaN command, hold attitude neutral rather than hand NaN to the motors
+            for (int i = 0; i < 4; i++) power[i] = 0;
+            min = max = range = 0;
+        }
+        if (range > 1) {
+            // not even zero thrust fits, shrink the attitude part to the full range
+            double scale = 1 / range;
+            for (int i = 0; i < 4; i++) power[i] *= scale;
+            min *= scale;
+            max *= scale;
+        }
+
+        // shift thrust just enough that the lowest motor stays >= 0 and the highest <= 1
+        thrust = Math.max(-min, Math.min(1 - max, thrust));
+        if (thrust != thrust) thrust = -min; // NaN command, idle but keep attitude
+
+        for (int i = 0; i < 4; i++) power[i] += thrust;
+    }
+
+    public double power(int motor) {
+        return power[motor];
+    }
+
+    // one pass over the motors, each skips the PWM write when its pulse width hasn't changed
+    public void write() {
+        for (int i = 0; i < 4; i++) motors[i].setPower(power[i]);
+    }
+}
@@ -12,8 +12,8 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SocketChannel;
-import java.time.Duration;
-import java.time.Instant;
+
+import static drone.DroneConstants.*;
 
 public class OrientationTest {
     void main() throws InterruptedException, IOException {
@@ -28,25 +28,44 @@ public class OrientationTest {
 
             //ori.initFromAccel(imu.read().accel());
 
+            // forced baro reads block for a whole conversion, let it run on its own and pick up the results
+            baro.configureNormalMode(BMP388.OutputDataRate.HZ_50);
+            baro.startSampler();
+
+            var scheduler = new Scheduler(IMU_RATE);
+            int imuTask = scheduler.add("imu", IMU_RATE);
+            int baroTask = scheduler.add("baro", BARO_RATE);
+            int telemetryTask = scheduler.add("telemetry", TELEMETRY_RATE);
+
             System.out.println("started");
-            Instant lastUpdate = Instant.now();
+            BMP388.Reading barometerReading = null;
+            double altitudeDt = 0;
             while(!Thread.interrupted()) {
-                var now = Instant.now();
-                var dt = Duration.between(lastUpdate, now).toNanos() / 1.e9;
+                scheduler.awaitTick();
                 var imuReading = imu.read();
-                var barometerReading = baro.read();
-
-                ori.update(dt, imuReading.gyro(), imuReading.accel(), 0);
-                af.update(dt, ori.globalAccel.z(), imuReading.accelVariance().rotatedBy(ori.orientation).z(), barometerReading.altitude(), barometerReading.altitudeVariance());
-
-                //System.out.println(baro.read());
-                //System.out.println(imuReading);
-                System.out.printf("%3.3f,%3.3f,%3.3f%n", barometerReading.altitude(), af.altitude(), af.verticalVelocity());
-                var orientation = ori.orientation;
-                socket.send(ByteBuffer.wrap(orientation.asBytes()), new InetSocketAddress("10.42.42.2", 4444));
+                ori.update(scheduler.dt(imuTask), imuReading.gyro(), imuReading.accel(), 0);
 
+                if (scheduler.due(baroTask)) {
+                    altitudeDt += scheduler.dt(baroTask);
+                    var latest = baro.tryLatest();
+                    if (latest != null && latest != barometerReading) {
+                        barometerReading = latest;
+                        // variances don't rotate like a vector, var(z) = sum of R[2][i]^2 var(i) like in MainLoop
+                        var variance = imuReading.accelVariance();
+                        var r = ori.rotation;
+                        double verticalAccelVariance = r.m20 * r.m20 * variance.x() + r.m21 * r.m21 * variance.y() + r.m22 * r.m22 * variance.z();
+                        af.update(altitudeDt, ori.globalAccel.z, verticalAccelVariance, barometerReading.altitude(), barometerReading.altitudeVariance());
+                        altitudeDt = 0;
+                    }
+                }
 
-                lastUpdate = now;
+                if (scheduler.due(telemetryTask)) {
+                    //System.out.println(imuReading);
+                    if (barometerReading != null)
+                        System.out.printf("%3.3f,%3.3f,%3.3f%n", barometerReading.altitude(), af.altitude(), af.verticalVelocity());
+                    var orientation = ori.orientation.toQuaternion();
+                    socket.send(ByteBuffer.wrap(orientation.asBytes()), new InetSocketAddress("10.42.42.2", 4444));
+                }
             }
         }
     }
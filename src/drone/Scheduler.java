@@ -0,0 +1,179 @@
+package drone;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Cyclic multi-rate schedule for the control loop. The loop runs at the tick rate, the fastest task's, and
+every other task runs on every n-th tick from its phase:
+
+    tick     0   1   2   3  ...  10  11  ...  20  21
+    imu      x   x   x   x        x   x        x   x      1000Hz, every tick
+    baro     x                                 x          50Hz, phase 0
+    telem        x                    x            x      100Hz, phase 1
+
+Slower tasks are staggered so no two of them ever share a tick, two tasks with periods a and b and phases
+p and q meet exactly when p = q mod gcd(a, b). Tasks don't block the loop, each one does a bounded piece
+of work when due() says so and the loop body stays straight line code.
+ */
+public final class Scheduler {
+    private final double tickRate;
+    private final long tickNanos;
+
+    private String[] names = new String[0];
+    private int[] period = new int[0]; // in ticks
+    private int[] phase = new int[0];
+    private long[] lastRun = new long[0];
+    private double[] dt = new double[0];
+    private boolean[] due = new boolean[0];
+
+    private long tick = -1;
+    private long deadline;
+    private long overruns;
+
+    public Scheduler(double tickRate) {
+        if (!(tickRate > 0))
+            throw new IllegalArgumentException("tick rate must be positive");
+        this.tickRate = tickRate;
+        this.tickNanos = Math.round(1e9 / tickRate);
+    }
+
+    /*
+    Adds a task at rateHz, which has to divide the tick rate, on the first phase that doesn't share a tick
+    with another slower task. Returns the task's id for due() and dt().
+     */
+    public int add(String name, double rateHz) {
+        int p = periodOf(rateHz);
+        if (p == 1)
+            return add(name, rateHz, 0);
+        for (int candidate = 0; candidate < p; candidate++) {
+            if (collision(p, candidate) == null)
+                return add(name, rateHz, candidate);
+        }
+        throw new IllegalArgumentException("no free phase for " + name + " at " + rateHz + "Hz");
+    }
+
+    // same with an explicit phase in ticks, rejected when it lands on the same tick as another slower task
+    public int add(String name, double rateHz, int phaseTicks) {
+        int p = periodOf(rateHz);
+        if (phaseTicks < 0 || phaseTicks >= p)
+            throw new IllegalArgumentException("phase must be in [0, " + p + ") ticks");
+        if (p > 1) {
+            var other = collision(p, phaseTicks);
+            if (other != null)
+                throw new IllegalArgumentException(name + " would share ticks with " + other);
+        }
+
+        int id = names.length;
+        names = Arrays.copyOf(names, id + 1);
+        period = Arrays.copyOf(period, id + 1);
+        phase = Arrays.copyOf(phase, id + 1);
+        lastRun = Arrays.copyOf(lastRun, id + 1);
+        dt = Arrays.copyOf(dt, id + 1);
+        due = Arrays.copyOf(due, id + 1);
+        names[id] = name;
+        period[id] = p;
+        phase[id] = phaseTicks;
+        lastRun[id] = Long.MIN_VALUE;
+        return id;
+    }
+
+    private int periodOf(double rateHz) {
+        double ticks = tickRate / rateHz;
+        long p = Math.round(ticks);
+        if (!(rateHz > 0) || p < 1 || Math.abs(ticks - p) > 1e-9 * ticks)
+            throw new IllegalArgumentException(rateHz + "Hz doesn't divide the " + tickRate + "Hz tick rate");
+        return Math.toIntExact(p);
+    }
+
+    private String collision(int p, int ph) {
+        for (int i = 0; i < names.length; i++) {
+            if (period[i] > 1 && Math.floorMod(ph - phase[i], gcd(p, period[i])) == 0)
+                return names[i];
+        }
+        return null;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /*
+    Sleeps until the next tick is due and starts it. When the loop overran by whole ticks the schedule
+    restarts from now instead of bursting to catch up, see overruns().
+     */
+    public long awaitTick() throws InterruptedException {
+        long now = System.nanoTime();
+        if (tick < 0) {
+            deadline = now;
+        } else {
+            deadline += tickNanos;
+            long late = now - deadline;
+            if (late >= tickNanos) {
+                overruns += late / tickNanos;
+                deadline = now;
+            }
+        }
+
+        // park through most of the wait and spin the rest, parking alone overshoots by tens of microseconds
+        long remaining;
+        while ((remaining = deadline - (now = System.nanoTime())) > 0) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (remaining > 200_000)
+                LockSupport.parkNanos(remaining - 100_000);
+            else
+                Thread.onSpinWait();
+        }
+        tick(now);
+        return now;
+    }
+
+    // starts the next tick at now, for loops clocked by something else like the IMU's data ready pin
+    public void tick(long now) {
+        tick++;
+        for (int i = 0; i < names.length; i++) {
+            due[i] = tick >= phase[i] && (tick - phase[i]) % period[i] == 0;
+            if (due[i]) {
+                dt[i] = lastRun[i] == Long.MIN_VALUE ? 0 : (now - lastRun[i]) / 1e9;
+                lastRun[i] = now;
+            }
+        }
+    }
+
+    public boolean due(int task) {
+        return due[task];
+    }
+
+    // seconds since the task's previous run, 0 on its first
+    public double dt(int task) {
+        return dt[task];
+    }
+
+    public long tick() {
+        return tick;
+    }
+
+    public double tickRate() {
+        return tickRate;
+    }
+
+    // ticks lost to iterations that ran longer than a tick
+    public long overruns() {
+        return overruns;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder("Scheduler[%.0fHz".formatted(tickRate));
+        for (int i = 0; i < names.length; i++) {
+            sb.append(", %s %sHz phase %d".formatted(names[i], tickRate / period[i], phase[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
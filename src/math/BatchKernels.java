@@ -0,0 +1,177 @@
+package math;
+
+import static java.lang.Math.sqrt;
+
+// scalar loops behind Vector3Buffer and QuaternionBuffer. SimdBatchKernels overrides the whole-buffer ops
+// and falls back to the ranged ones here for the tail. Sizes are checked by the callers
+class BatchKernels {
+	// the vector api is an incubator module, only touch SimdBatchKernels when it was added with --add-modules.
+	// -Dsimd=false forces the scalar loops
+	static final BatchKernels INSTANCE =
+			Boolean.parseBoolean(System.getProperty("simd", "true"))
+					&& ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+					? new SimdBatchKernels() : new BatchKernels();
+
+	boolean vectorized() {
+		return false;
+	}
+
+	void add(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out) {
+		add(a, b, out, 0, a.size());
+	}
+
+	final void add(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			out.x[i] = a.x[i] + b.x[i];
+			out.y[i] = a.y[i] + b.y[i];
+			out.z[i] = a.z[i] + b.z[i];
+		}
+	}
+
+	void sub(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out) {
+		sub(a, b, out, 0, a.size());
+	}
+
+	final void sub(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			out.x[i] = a.x[i] - b.x[i];
+			out.y[i] = a.y[i] - b.y[i];
+			out.z[i] = a.z[i] - b.z[i];
+		}
+	}
+
+	void scale(Vector3Buffer a, double s, Vector3Buffer out) {
+		scale(a, s, out, 0, a.size());
+	}
+
+	final void scale(Vector3Buffer a, double s, Vector3Buffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			out.x[i] = a.x[i] * s;
+			out.y[i] = a.y[i] * s;
+			out.z[i] = a.z[i] * s;
+		}
+	}
+
+	void normalize(Vector3Buffer a, Vector3Buffer out) {
+		normalize(a, out, 0, a.size());
+	}
+
+	final void normalize(Vector3Buffer a, Vector3Buffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double x = a.x[i], y = a.y[i], z = a.z[i];
+			double norm2 = x * x + y * y + z * z;
+			double inv = norm2 == 0 ? 1 : 1 / sqrt(norm2);
+			out.x[i] = x * inv;
+			out.y[i] = y * inv;
+			out.z[i] = z * inv;
+		}
+	}
+
+	void dot(Vector3Buffer a, Vector3Buffer b, double[] out) {
+		dot(a, b, out, 0, a.size());
+	}
+
+	final void dot(Vector3Buffer a, Vector3Buffer b, double[] out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			out[i] = a.x[i] * b.x[i] + a.y[i] * b.y[i] + a.z[i] * b.z[i];
+		}
+	}
+
+	void cross(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out) {
+		cross(a, b, out, 0, a.size());
+	}
+
+	final void cross(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double ax = a.x[i], ay = a.y[i], az = a.z[i];
+			double bx = b.x[i], by = b.y[i], bz = b.z[i];
+			out.x[i] = ay * bz - az * by;
+			out.y[i] = az * bx - ax * bz;
+			out.z[i] = ax * by - ay * bx;
+		}
+	}
+
+	void rotate(RotationMatrix m, Vector3Buffer a, Vector3Buffer out) {
+		rotate(m, a, out, 0, a.size());
+	}
+
+	final void rotate(RotationMatrix m, Vector3Buffer a, Vector3Buffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double x = a.x[i], y = a.y[i], z = a.z[i];
+			out.x[i] = m.m00 * x + m.m01 * y + m.m02 * z;
+			out.y[i] = m.m10 * x + m.m11 * y + m.m12 * z;
+			out.z[i] = m.m20 * x + m.m21 * y + m.m22 * z;
+		}
+	}
+
+	void rotate(QuaternionBuffer q, Vector3Buffer a, Vector3Buffer out) {
+		rotate(q, a, out, 0, a.size());
+	}
+
+	// same unrolled q * v * q' as MutableVector3.rotate
+	final void rotate(QuaternionBuffer q, Vector3Buffer a, Vector3Buffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double q0 = q.x0[i], q1 = q.x1[i], q2 = q.x2[i], q3 = q.x3[i];
+			double x = a.x[i], y = a.y[i], z = a.z[i];
+
+			double p0 = -q1 * x - q2 * y - q3 * z;
+			double p1 = q0 * x + q2 * z - q3 * y;
+			double p2 = q0 * y - q1 * z + q3 * x;
+			double p3 = q0 * z + q1 * y - q2 * x;
+
+			out.x[i] = -p0 * q1 + p1 * q0 - p2 * q3 + p3 * q2;
+			out.y[i] = -p0 * q2 + p1 * q3 + p2 * q0 - p3 * q1;
+			out.z[i] = -p0 * q3 - p1 * q2 + p2 * q1 + p3 * q0;
+		}
+	}
+
+	Vector3 sum(Vector3Buffer a) {
+		return sum(a, 0, a.size());
+	}
+
+	final Vector3 sum(Vector3Buffer a, int from, int to) {
+		double x = 0, y = 0, z = 0;
+		for (int i = from; i < to; i++) {
+			x += a.x[i];
+			y += a.y[i];
+			z += a.z[i];
+		}
+		return new Vector3(x, y, z);
+	}
+
+	void mul(QuaternionBuffer a, QuaternionBuffer b, QuaternionBuffer out) {
+		mul(a, b, out, 0, a.size());
+	}
+
+	final void mul(QuaternionBuffer a, QuaternionBuffer b, QuaternionBuffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double a0 = a.x0[i], a1 = a.x1[i], a2 = a.x2[i], a3 = a.x3[i];
+			double b0 = b.x0[i], b1 = b.x1[i], b2 = b.x2[i], b3 = b.x3[i];
+			out.x0[i] = a0 * b0 - a1 * b1 - a2 * b2 - a3 * b3;
+			out.x1[i] = a0 * b1 + a1 * b0 + a2 * b3 - a3 * b2;
+			out.x2[i] = a0 * b2 - a1 * b3 + a2 * b0 + a3 * b1;
+			out.x3[i] = a0 * b3 + a1 * b2 - a2 * b1 + a3 * b0;
+		}
+	}
+
+	void normalize(QuaternionBuffer a, QuaternionBuffer out) {
+		normalize(a, out, 0, a.size());
+	}
+
+	final void normalize(QuaternionBuffer a, QuaternionBuffer out, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double x0 = a.x0[i], x1 = a.x1[i], x2 = a.x2[i], x3 = a.x3[i];
+			double norm2 = x0 * x0 + x1 * x1 + x2 * x2 + x3 * x3;
+			if (norm2 == 0) {
+				out.x0[i] = 1;
+				out.x1[i] = out.x2[i] = out.x3[i] = 0;
+				continue;
+			}
+			double inv = 1 / sqrt(norm2);
+			out.x0[i] = x0 * inv;
+			out.x1[i] = x1 * inv;
+			out.x2[i] = x2 * inv;
+			out.x3[i] = x3 * inv;
+		}
+	}
+}
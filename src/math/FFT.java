@@ -4,66 +4,24 @@ public class FFT {
 	// compute the FFT of x[], assuming its length n is a power of 2
 	public static Complex[] fft(Complex[] x) {
 		int n = x.length;
+		double[] re = new double[n];
+		double[] im = new double[n];
+		split(x, re, im);
 
-		// base case
-		if (n == 1) return new Complex[] { x[0] };
-
-		// radix 2 Cooley-Tukey FFT
-		if (n % 2 != 0) {
-			throw new IllegalArgumentException("n is not a power of 2");
-		}
-
-		// compute FFT of even terms
-		Complex[] even = new Complex[n/2];
-		for (int k = 0; k < n/2; k++) {
-			even[k] = x[2*k];
-		}
-		Complex[] evenFFT = fft(even);
-
-		// compute FFT of odd terms
-		Complex[] odd  = even;  // reuse the array (to avoid n log n space)
-		for (int k = 0; k < n/2; k++) {
-			odd[k] = x[2*k + 1];
-		}
-		Complex[] oddFFT = fft(odd);
-
-		// combine
-		Complex[] y = new Complex[n];
-		for (int k = 0; k < n/2; k++) {
-			double kth = -2 * k * Math.PI / n;
-			Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-			y[k]       = evenFFT[k].plus (wk.times(oddFFT[k]));
-			y[k + n/2] = evenFFT[k].minus(wk.times(oddFFT[k]));
-		}
-		return y;
+		FFTPlan.of(n).forward(re, im);
+		return join(re, im);
 	}
 
 
 	// compute the inverse FFT of x[], assuming its length n is a power of 2
 	public static Complex[] ifft(Complex[] x) {
 		int n = x.length;
-		Complex[] y = new Complex[n];
-
-		// take conjugate
-		for (int i = 0; i < n; i++) {
-			y[i] = x[i].conjugate();
-		}
-
-		// compute forward FFT
-		y = fft(y);
-
-		// take conjugate again
-		for (int i = 0; i < n; i++) {
-			y[i] = y[i].conjugate();
-		}
-
-		// divide by n
-		for (int i = 0; i < n; i++) {
-			y[i] = y[i].scale(1.0 / n);
-		}
-
-		return y;
+		double[] re = new double[n];
+		double[] im = new double[n];
+		split(x, re, im);
 
+		FFTPlan.of(n).inverse(re, im);
+		return join(re, im);
 	}
 
 	// compute the circular convolution of x and y
@@ -76,19 +34,68 @@ public class FFT {
 		}
 
 		int n = x.length;
+		double[] aRe = new double[n], aIm = new double[n];
+		double[] bRe = new double[n], bIm = new double[n];
+		split(x, aRe, aIm);
+		split(y, bRe, bIm);
+
+		cconvolve(aRe, aIm, bRe, bIm);
+		return join(aRe, aIm);
+	}
 
-		// compute FFT of each sequence
-		Complex[] a = fft(x);
-		Complex[] b = fft(y);
+	// in place forward transform of re + i * im, length must be a power of 2
+	public static void fft(double[] re, double[] im) {
+		FFTPlan.of(re.length).forward(re, im);
+	}
+
+	// in place inverse transform of re + i * im, length must be a power of 2
+	public static void ifft(double[] re, double[] im) {
+		FFTPlan.of(re.length).inverse(re, im);
+	}
+
+	// spectrum bins 0..n/2 of the real signal x, re and im need x.length / 2 + 1 slots
+	public static void rfft(double[] x, double[] re, double[] im) {
+		FFTPlan.of(x.length).forwardReal(x, re, im);
+	}
+
+	// inverse of rfft, re and im are overwritten
+	public static void irfft(double[] re, double[] im, double[] x) {
+		FFTPlan.of(x.length).inverseReal(re, im, x);
+	}
+
+	// circular convolution of a and b, the result is left in aRe and aIm and b is overwritten
+	public static void cconvolve(double[] aRe, double[] aIm, double[] bRe, double[] bIm) {
+		if (aRe.length != bRe.length) {
+			throw new IllegalArgumentException("Dimensions don't agree");
+		}
+
+		var plan = FFTPlan.of(aRe.length);
+		plan.forward(aRe, aIm);
+		plan.forward(bRe, bIm);
 
 		// point-wise multiply
-		Complex[] c = new Complex[n];
-		for (int i = 0; i < n; i++) {
-			c[i] = a[i].times(b[i]);
+		for (int i = 0; i < aRe.length; i++) {
+			double re = aRe[i] * bRe[i] - aIm[i] * bIm[i];
+			aIm[i] = aRe[i] * bIm[i] + aIm[i] * bRe[i];
+			aRe[i] = re;
 		}
 
-		// compute inverse FFT
-		return ifft(c);
+		plan.inverse(aRe, aIm);
+	}
+
+	private static void split(Complex[] x, double[] re, double[] im) {
+		for (int i = 0; i < x.length; i++) {
+			re[i] = x[i].a();
+			im[i] = x[i].b();
+		}
+	}
+
+	private static Complex[] join(double[] re, double[] im) {
+		Complex[] y = new Complex[re.length];
+		for (int i = 0; i < y.length; i++) {
+			y[i] = Complex.ofCartesian(re[i], im[i]);
+		}
+		return y;
 	}
 
 
@@ -0,0 +1,169 @@
+package math;
+
+// in-place radix 2 FFT over split real/imaginary arrays, one cached plan per power of 2 size
+public final class FFTPlan {
+	private static final FFTPlan[] PLANS = new FFTPlan[31];
+
+	private final int n;
+	private final int[] reversed; // bit reversal permutation
+	private final double[] cos, sin; // e^(-2 pi i k / n) for k < n / 2
+
+	private FFTPlan(int n) {
+		this.n = n;
+		this.reversed = new int[n];
+		this.cos = new double[n / 2];
+		this.sin = new double[n / 2];
+
+		int bits = Integer.numberOfTrailingZeros(n);
+		for (int i = 0; i < n; i++) {
+			reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+		for (int k = 0; k < n / 2; k++) {
+			double kth = -2 * k * Math.PI / n;
+			cos[k] = Math.cos(kth);
+			sin[k] = Math.sin(kth);
+		}
+	}
+
+	// plans are immutable, so racing to build one just wastes a table
+	public static FFTPlan of(int n) {
+		if (n < 1 || Integer.bitCount(n) != 1) {
+			throw new IllegalArgumentException("n is not a power of 2");
+		}
+
+		int log = Integer.numberOfTrailingZeros(n);
+		var plan = PLANS[log];
+		if (plan == null) {
+			plan = new FFTPlan(n);
+			PLANS[log] = plan;
+		}
+		return plan;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	// forward transform of re + i * im, in place
+	public void forward(double[] re, double[] im) {
+		transform(re, im, 1);
+	}
+
+	// inverse transform of re + i * im, in place and scaled by 1 / n
+	public void inverse(double[] re, double[] im) {
+		transform(re, im, -1);
+
+		double scale = 1.0 / n;
+		for (int i = 0; i < n; i++) {
+			re[i] *= scale;
+			im[i] *= scale;
+		}
+	}
+
+	private void transform(double[] re, double[] im, double direction) {
+		if (re.length < n || im.length < n) {
+			throw new IllegalArgumentException("Dimensions don't agree");
+		}
+
+		for (int i = 0; i < n; i++) {
+			int j = reversed[i];
+			if (j > i) {
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+
+		for (int size = 2; size <= n; size <<= 1) {
+			int half = size >> 1;
+			int step = n / size;
+			for (int start = 0; start < n; start += size) {
+				for (int k = 0; k < half; k++) {
+					double wr = cos[k * step];
+					double wi = direction * sin[k * step];
+
+					int even = start + k;
+					int odd = even + half;
+					double tr = wr * re[odd] - wi * im[odd];
+					double ti = wr * im[odd] + wi * re[odd];
+
+					re[odd] = re[even] - tr;
+					im[odd] = im[even] - ti;
+					re[even] += tr;
+					im[even] += ti;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Spectrum of n real samples using one complex transform of size n / 2.
+	 * re and im need n / 2 + 1 slots and receive bins 0..n/2, the rest is the conjugate mirror.
+	 */
+	public void forwardReal(double[] x, double[] re, double[] im) {
+		if (n < 2) {
+			throw new IllegalArgumentException("real transform needs n >= 2");
+		}
+
+		int m = n / 2;
+		for (int k = 0; k < m; k++) {
+			re[k] = x[2 * k];
+			im[k] = x[2 * k + 1];
+		}
+		of(m).forward(re, im);
+
+		// untangle the even and odd sample spectra, bins k and m - k together
+		double r0 = re[0], i0 = im[0];
+		re[0] = r0 + i0;
+		im[0] = 0;
+		re[m] = r0 - i0;
+		im[m] = 0;
+
+		for (int k = 1; k <= m / 2; k++) {
+			int j = m - k;
+			double evenR = (re[k] + re[j]) / 2, evenI = (im[k] - im[j]) / 2;
+			double oddR = (im[k] + im[j]) / 2, oddI = (re[j] - re[k]) / 2;
+
+			double tr = cos[k] * oddR - sin[k] * oddI;
+			double ti = cos[k] * oddI + sin[k] * oddR;
+
+			re[k] = evenR + tr;
+			im[k] = evenI + ti;
+			re[j] = evenR - tr;
+			im[j] = ti - evenI;
+		}
+	}
+
+	// inverse of forwardReal, re and im are used as scratch and x receives the n samples
+	public void inverseReal(double[] re, double[] im, double[] x) {
+		if (n < 2) {
+			throw new IllegalArgumentException("real transform needs n >= 2");
+		}
+
+		int m = n / 2;
+		double r0 = re[0], rm = re[m];
+		re[0] = (r0 + rm) / 2;
+		im[0] = (r0 - rm) / 2;
+
+		for (int k = 1; k <= m / 2; k++) {
+			int j = m - k;
+			double evenR = (re[k] + re[j]) / 2, evenI = (im[k] - im[j]) / 2;
+			double dr = (re[k] - re[j]) / 2, di = (im[k] + im[j]) / 2;
+
+			// odd = (X[k] - conj(X[m - k])) * conj(w^k) / 2
+			double oddR = dr * cos[k] + di * sin[k];
+			double oddI = di * cos[k] - dr * sin[k];
+
+			// z[k] = even + i * odd, z[m - k] = conj(even) + i * conj(odd)
+			re[k] = evenR - oddI;
+			im[k] = evenI + oddR;
+			re[j] = evenR + oddI;
+			im[j] = oddR - evenI;
+		}
+		of(m).inverse(re, im);
+
+		for (int k = 0; k < m; k++) {
+			x[2 * k] = re[k];
+			x[2 * k + 1] = im[k];
+		}
+	}
+}
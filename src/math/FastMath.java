@@ -0,0 +1,90 @@
+package math;
+
+/*
+ * Polynomial approximations for the estimator and controller hot paths. Coefficients are fitted at
+ * chebyshev nodes (near minimax), the bounds below are max absolute error unless noted:
+ *
+ *   sin, cos     1e-8    for |x| <= 1e5, falls back to Math beyond that
+ *   atan, atan2  1e-7
+ *   asin, acos   2e-7    for |x| <= 1
+ *   invSqrt      5e-11   relative, for normal positive x
+ */
+public final class FastMath {
+	private static final double PI_HI = 3.141592653589793;
+	private static final double PI_LO = 1.2246467991473532e-16; // PI - PI_HI
+	private static final double HALF_PI = Math.PI / 2;
+	private static final double REDUCTION_LIMIT = 1e5;
+
+	// sin(x) = x * S(x^2) and cos(x) = C(x^2) on [-pi/2, pi/2]
+	private static final double S0 = 0.999999995698809, S1 = -0.16666657947846006, S2 = 0.008333050170671794,
+			S3 = -0.00019809017408677578, S4 = 2.6051076353233456e-06;
+	private static final double C0 = 0.9999999997791538, C1 = -0.49999999355437696, C2 = 0.04166663615971899,
+			C3 = -0.00138883602843592, C4 = 2.4760109671183305e-05, C5 = -2.6050657461719274e-07;
+
+	// atan(x) = x * A(x^2) on [0, 1]
+	private static final double A0 = 0.999999881996493, A1 = -0.33331812655627846, A2 = 0.19966961829592264,
+			A3 = -0.14003290184655312, A4 = 0.09868865458135907, A5 = -0.05882975314304205,
+			A6 = 0.02378051859710211, A7 = -0.004559791986101013;
+
+	private FastMath() {
+	}
+
+	public static double sin(double x) {
+		if (!(Math.abs(x) <= REDUCTION_LIMIT)) return Math.sin(x);
+
+		// x = k pi + r with |r| <= pi / 2, sin(x) = (-1)^k sin(r)
+		double k = Math.rint(x / Math.PI);
+		double r = (x - k * PI_HI) - k * PI_LO;
+		double r2 = r * r;
+		double s = r * (S0 + r2 * (S1 + r2 * (S2 + r2 * (S3 + r2 * S4))));
+		return (((long) k) & 1) == 0 ? s : -s;
+	}
+
+	public static double cos(double x) {
+		if (!(Math.abs(x) <= REDUCTION_LIMIT)) return Math.cos(x);
+
+		double k = Math.rint(x / Math.PI);
+		double r = (x - k * PI_HI) - k * PI_LO;
+		double r2 = r * r;
+		double c = C0 + r2 * (C1 + r2 * (C2 + r2 * (C3 + r2 * (C4 + r2 * C5))));
+		return (((long) k) & 1) == 0 ? c : -c;
+	}
+
+	public static double atan(double x) {
+		return atan2(x, 1);
+	}
+
+	public static double atan2(double y, double x) {
+		double ax = Math.abs(x), ay = Math.abs(y);
+		double max = Math.max(ax, ay);
+		if (max == 0) return Math.atan2(y, x); // keeps the signed zero conventions
+		if (Double.isNaN(max) || Double.isInfinite(max)) return Math.atan2(y, x);
+
+		// fold into the first octant, z in [0, 1]
+		double z = Math.min(ax, ay) / max;
+		double z2 = z * z;
+		double a = z * (A0 + z2 * (A1 + z2 * (A2 + z2 * (A3 + z2 * (A4 + z2 * (A5 + z2 * (A6 + z2 * A7)))))));
+
+		if (ay > ax) a = HALF_PI - a;
+		if (x < 0) a = Math.PI - a;
+		return Math.copySign(a, y); // -0.0 too, atan2(-0.0, -1) is -pi
+	}
+
+	public static double asin(double x) {
+		return atan2(x, Math.sqrt((1 - x) * (1 + x)));
+	}
+
+	public static double acos(double x) {
+		return atan2(Math.sqrt((1 - x) * (1 + x)), x);
+	}
+
+	// 1 / sqrt(x) from the bit trick guess and three newton steps
+	public static double invSqrt(double x) {
+		double half = 0.5 * x;
+		double y = Double.longBitsToDouble(0x5FE6EB50C7B537A9L - (Double.doubleToRawLongBits(x) >> 1));
+		y *= 1.5 - half * y * y;
+		y *= 1.5 - half * y * y;
+		y *= 1.5 - half * y * y;
+		return y;
+	}
+}
@@ -3,36 +3,188 @@ package math;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 
+import java.lang.invoke.VarHandle;
+
+/*
+ * General Kalman filter. predict and correct are meant to be called from a single writer thread,
+ * other threads should read through state(), covariance() or snapshot(), which retry instead of locking.
+ */
 public class KalmanFilter {
-	private final RealMatrix observation, control;
+	private final double[][] observation, control; // H, B
+
+	private final double[] x;
+	private final double[][] P;
 
-	private RealMatrix P, x;
+	// workspaces sized at construction so the hot path doesn't allocate
+	private final double[] xNext, ph, gain, ah;
+	private final double[][] work;
+
+	private volatile int version; // odd while the writer is mid update
 
 	public KalmanFilter(RealMatrix observation, RealMatrix control) {
+		this(observation.getData(), control.getData());
+	}
+
+	public KalmanFilter(double[][] observation, double[][] control) {
 		this.observation = observation; // H
 		this.control = control; // B
 		// x_k = A(x_k-1) + B(u_k) // state transition
 		// z_k = H_k(x_k) // observation
 
-		this.P = MatrixUtils.createRealIdentityMatrix(observation.getColumnDimension());
-		this.x = MatrixUtils.createRealMatrix(new double[observation.getColumnDimension()][1]);
+		int n = observation[0].length;
+		this.P = new double[n][n];
+		for (int i = 0; i < n; i++) P[i][i] = 1;
+		this.x = new double[n];
+
+		this.xNext = new double[n];
+		this.ph = new double[n];
+		this.gain = new double[n];
+		this.ah = new double[n];
+		this.work = new double[n][n];
+	}
+
+	public void predict(RealMatrix dynamics, RealMatrix u) {
+		predict(dynamics.getData(), u.getColumn(0));
+	}
+
+	// x = A x + B u, P = A P A'
+	public void predict(double[][] dynamics, double[] u) {
+		int n = x.length;
+		beginWrite();
+
+		for (int i = 0; i < n; i++) {
+			double sum = 0;
+			for (int j = 0; j < n; j++) sum += dynamics[i][j] * x[j];
+			for (int j = 0; j < u.length; j++) sum += control[i][j] * u[j];
+			xNext[i] = sum;
+		}
+		System.arraycopy(xNext, 0, x, 0, n);
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				double sum = 0;
+				for (int k = 0; k < n; k++) sum += dynamics[i][k] * P[k][j];
+				work[i][j] = sum;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				double sum = 0;
+				for (int k = 0; k < n; k++) sum += work[i][k] * dynamics[j][k];
+				P[i][j] = sum;
+			}
+		}
+
+		endWrite();
+	}
+
+	// full measurement update, inverts the innovation covariance so any variance matrix works
+	public void correct(RealMatrix y, RealMatrix variance) {
+		var H = MatrixUtils.createRealMatrix(observation);
+		var state = MatrixUtils.createColumnRealMatrix(x);
+		var covariance = MatrixUtils.createRealMatrix(P);
+
+		var innovation = y.subtract(H.multiply(state));
+		var innovationCovariance = H.multiply(covariance).multiply(H.transpose()).add(variance);
+
+		var gain = covariance.multiply(H.transpose()).multiply(MatrixUtils.inverse(innovationCovariance));
+		state = state.add(gain.multiply(innovation));
+		covariance = MatrixUtils.createRealIdentityMatrix(gain.getRowDimension()).subtract(gain.multiply(H)).multiply(covariance);
+
+		beginWrite();
+		for (int i = 0; i < x.length; i++) {
+			x[i] = state.getEntry(i, 0);
+			for (int j = 0; j < x.length; j++) P[i][j] = covariance.getEntry(i, j);
+		}
+		endWrite();
+	}
+
+	// measurement update for a diagonal variance matrix, one scalar row at a time with no inverse
+	public void correctSequential(double[] y, double[] variance) {
+		beginWrite();
+		for (int row = 0; row < y.length; row++) {
+			scalarUpdate(row, y[row], variance[row]);
+		}
+		endWrite();
+	}
+
+	// update with just one row of the observation matrix
+	public void correct(int row, double y, double variance) {
+		beginWrite();
+		scalarUpdate(row, y, variance);
+		endWrite();
+	}
+
+	private void scalarUpdate(int row, double y, double r) {
+		int n = x.length;
+		double[] h = observation[row];
+
+		double innovation = y;
+		for (int i = 0; i < n; i++) innovation -= h[i] * x[i];
+
+		// ph = P h', s = h P h' + r
+		double s = r;
+		for (int i = 0; i < n; i++) {
+			double sum = 0;
+			for (int j = 0; j < n; j++) sum += P[i][j] * h[j];
+			ph[i] = sum;
+			s += h[i] * sum;
+		}
+
+		for (int i = 0; i < n; i++) {
+			gain[i] = ph[i] / s;
+			x[i] += gain[i] * innovation;
+		}
+
+		// joseph form, P = (I - k h) P (I - k h)' + r k k'
+		for (int i = 0; i < n; i++) {
+			double sum = 0;
+			for (int j = 0; j < n; j++) {
+				work[i][j] = P[i][j] - gain[i] * ph[j]; // h P = ph' since P is symmetric
+				sum += work[i][j] * h[j];
+			}
+			ah[i] = sum;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				P[i][j] = work[i][j] - ah[i] * gain[j] + r * gain[i] * gain[j];
+			}
+		}
 	}
 
-	public synchronized void predict(RealMatrix dynamics, RealMatrix u) {
-		x = dynamics.multiply(x).add(control.multiply(u));
-		P = dynamics.multiply(P).multiply(dynamics.transpose());
+	private void beginWrite() {
+		version++;
+		VarHandle.storeStoreFence();
 	}
 
-	public synchronized void correct(RealMatrix y, RealMatrix variance) {
-		var innovation = y.subtract(observation.multiply(x));
-		var innovationCovariance = observation.multiply(P).multiply(observation.transpose()).add(variance);
+	private void endWrite() {
+		version++;
+	}
+
+	// copies a consistent state and covariance, retrying if the writer was mid update
+	public void snapshot(double[] state, double[][] covariance) {
+		while (true) {
+			int before = version;
+			if ((before & 1) == 0) {
+				System.arraycopy(x, 0, state, 0, x.length);
+				for (int i = 0; i < P.length; i++) System.arraycopy(P[i], 0, covariance[i], 0, P.length);
 
-		var gain = P.multiply(observation.transpose()).multiply(MatrixUtils.inverse(innovationCovariance));
-		x = x.add(gain.multiply(innovation));
-		P = MatrixUtils.createRealIdentityMatrix(gain.getRowDimension()).subtract(gain.multiply(observation)).multiply(P);
+				VarHandle.acquireFence();
+				if (version == before) return;
+			}
+			Thread.onSpinWait();
+		}
 	}
 
 	public double[] state() {
-		return x.getColumn(0);
+		double[] state = new double[x.length];
+		snapshot(state, new double[x.length][x.length]);
+		return state;
+	}
+
+	public double[][] covariance() {
+		double[][] covariance = new double[x.length][x.length];
+		snapshot(new double[x.length], covariance);
+		return covariance;
 	}
 }
@@ -0,0 +1,169 @@
+package math;
+
+// KalmanFilter specialized to 3 states and 2 measurements with diagonal noise, unrolled so nothing allocates
+public class KalmanFilter3x2 {
+	private static final int STEADY_STATE_ITERATIONS = 100_000;
+	private static final double STEADY_STATE_TOLERANCE = 1e-12;
+
+	private final double h00, h01, h02, h10, h11, h12; // observation H
+
+	private double x0, x1, x2;
+	private double p00, p01, p02, p11, p12, p22; // P is symmetric, upper triangle only
+	private double k00, k01, k10, k11, k20, k21; // gain from the last correct
+
+	public KalmanFilter3x2(double[][] observation) {
+		if (observation.length != 2 || observation[0].length != 3 || observation[1].length != 3)
+			throw new IllegalArgumentException("observation must be 2x3");
+
+		h00 = observation[0][0]; h01 = observation[0][1]; h02 = observation[0][2];
+		h10 = observation[1][0]; h11 = observation[1][1]; h12 = observation[1][2];
+
+		p00 = p11 = p22 = 1; // same start as KalmanFilter, P = I and x = 0
+	}
+
+	// x = F x, P = F P F' + Q
+	public void predict(double[][] dynamics, double[][] processNoise) {
+		predict(dynamics);
+
+		p00 += processNoise[0][0];
+		p01 += processNoise[0][1];
+		p02 += processNoise[0][2];
+		p11 += processNoise[1][1];
+		p12 += processNoise[1][2];
+		p22 += processNoise[2][2];
+	}
+
+	// x = F x, P = F P F'
+	public void predict(double[][] dynamics) {
+		predictState(dynamics);
+
+		double f00 = dynamics[0][0], f01 = dynamics[0][1], f02 = dynamics[0][2];
+		double f10 = dynamics[1][0], f11 = dynamics[1][1], f12 = dynamics[1][2];
+		double f20 = dynamics[2][0], f21 = dynamics[2][1], f22 = dynamics[2][2];
+
+		// A = F P
+		double a00 = f00 * p00 + f01 * p01 + f02 * p02;
+		double a01 = f00 * p01 + f01 * p11 + f02 * p12;
+		double a02 = f00 * p02 + f01 * p12 + f02 * p22;
+		double a10 = f10 * p00 + f11 * p01 + f12 * p02;
+		double a11 = f10 * p01 + f11 * p11 + f12 * p12;
+		double a12 = f10 * p02 + f11 * p12 + f12 * p22;
+		double a20 = f20 * p00 + f21 * p01 + f22 * p02;
+		double a21 = f20 * p01 + f21 * p11 + f22 * p12;
+		double a22 = f20 * p02 + f21 * p12 + f22 * p22;
+
+		// P = A F'
+		p00 = a00 * f00 + a01 * f01 + a02 * f02;
+		p01 = a00 * f10 + a01 * f11 + a02 * f12;
+		p02 = a00 * f20 + a01 * f21 + a02 * f22;
+		p11 = a10 * f10 + a11 * f11 + a12 * f12;
+		p12 = a10 * f20 + a11 * f21 + a12 * f22;
+		p22 = a20 * f20 + a21 * f21 + a22 * f22;
+	}
+
+	// measurement y with variances r0 and r1 on the diagonal of R
+	public void correct(double y0, double y1, double r0, double r1) {
+		// C = P H'
+		double c00 = p00 * h00 + p01 * h01 + p02 * h02;
+		double c10 = p01 * h00 + p11 * h01 + p12 * h02;
+		double c20 = p02 * h00 + p12 * h01 + p22 * h02;
+		double c01 = p00 * h10 + p01 * h11 + p02 * h12;
+		double c11 = p01 * h10 + p11 * h11 + p12 * h12;
+		double c21 = p02 * h10 + p12 * h11 + p22 * h12;
+
+		// S = H P H' + R and its closed form inverse
+		double s00 = h00 * c00 + h01 * c10 + h02 * c20 + r0;
+		double s01 = h00 * c01 + h01 * c11 + h02 * c21;
+		double s11 = h10 * c01 + h11 * c11 + h12 * c21 + r1;
+
+		double det = s00 * s11 - s01 * s01;
+		double i00 = s11 / det;
+		double i01 = -s01 / det;
+		double i11 = s00 / det;
+
+		// K = C S^-1
+		k00 = c00 * i00 + c01 * i01; k01 = c00 * i01 + c01 * i11;
+		k10 = c10 * i00 + c11 * i01; k11 = c10 * i01 + c11 * i11;
+		k20 = c20 * i00 + c21 * i01; k21 = c20 * i01 + c21 * i11;
+
+		correctState(y0, y1, k00, k01, k10, k11, k20, k21);
+
+		// P = (I - K H) P = P - K C'
+		p00 -= k00 * c00 + k01 * c01;
+		p01 -= k00 * c10 + k01 * c11;
+		p02 -= k00 * c20 + k01 * c21;
+		p11 -= k10 * c10 + k11 * c11;
+		p12 -= k10 * c20 + k11 * c21;
+		p22 -= k20 * c20 + k21 * c21;
+	}
+
+	private void predictState(double[][] dynamics) {
+		double n0 = dynamics[0][0] * x0 + dynamics[0][1] * x1 + dynamics[0][2] * x2;
+		double n1 = dynamics[1][0] * x0 + dynamics[1][1] * x1 + dynamics[1][2] * x2;
+		double n2 = dynamics[2][0] * x0 + dynamics[2][1] * x1 + dynamics[2][2] * x2;
+		x0 = n0; x1 = n1; x2 = n2;
+	}
+
+	private void correctState(double y0, double y1, double g00, double g01, double g10, double g11, double g20, double g21) {
+		double v0 = y0 - (h00 * x0 + h01 * x1 + h02 * x2);
+		double v1 = y1 - (h10 * x0 + h11 * x1 + h12 * x2);
+
+		x0 += g00 * v0 + g01 * v1;
+		x1 += g10 * v0 + g11 * v1;
+		x2 += g20 * v0 + g21 * v1;
+	}
+
+	/*
+	 * Iterates the Riccati recursion for a fixed F, Q and R until the gain stops changing.
+	 * Needs Q > 0, without process noise P and the gain just decay to 0.
+	 */
+	public SteadyState solveSteadyState(double[][] dynamics, double[][] processNoise, double r0, double r1) {
+		var scratch = new KalmanFilter3x2(new double[][] {{h00, h01, h02}, {h10, h11, h12}});
+
+		for (int i = 0; i < STEADY_STATE_ITERATIONS; i++) {
+			double last00 = scratch.k00, last01 = scratch.k01, last10 = scratch.k10;
+			double last11 = scratch.k11, last20 = scratch.k20, last21 = scratch.k21;
+
+			scratch.predict(dynamics, processNoise);
+			scratch.correct(0, 0, r0, r1);
+
+			double change = Math.abs(scratch.k00 - last00) + Math.abs(scratch.k01 - last01) + Math.abs(scratch.k10 - last10)
+					+ Math.abs(scratch.k11 - last11) + Math.abs(scratch.k20 - last20) + Math.abs(scratch.k21 - last21);
+			if (change < STEADY_STATE_TOLERANCE) break;
+		}
+
+		return new SteadyState(
+				new double[] {scratch.k00, scratch.k01, scratch.k10, scratch.k11, scratch.k20, scratch.k21},
+				new double[] {scratch.p00, scratch.p01, scratch.p02, scratch.p11, scratch.p12, scratch.p22});
+	}
+
+	// predict and correct the state with a precomputed gain, P is left alone
+	public void update(double[][] dynamics, SteadyState steadyState, double y0, double y1) {
+		var k = steadyState.gain;
+		predictState(dynamics);
+		correctState(y0, y1, k[0], k[1], k[2], k[3], k[4], k[5]);
+	}
+
+	// hand back to the full filter, starting from the steady state covariance
+	public void resume(SteadyState steadyState) {
+		var p = steadyState.covariance;
+		p00 = p[0]; p01 = p[1]; p02 = p[2]; p11 = p[3]; p12 = p[4]; p22 = p[5];
+	}
+
+	public double state(int i) {
+		return switch (i) {
+			case 0 -> x0;
+			case 1 -> x1;
+			case 2 -> x2;
+			default -> throw new IndexOutOfBoundsException(i);
+		};
+	}
+
+	public double[] state() {
+		return new double[] {x0, x1, x2};
+	}
+
+	// converged gain K (row major 3x2) and a posteriori covariance P (upper triangle)
+	public record SteadyState(double[] gain, double[] covariance) {
+	}
+}
@@ -0,0 +1,33 @@
+package math;
+
+// lets the estimators and controller pick exact java.lang.Math or the FastMath approximations
+public enum MathMode {
+	EXACT {
+		@Override public double sin(double x) { return Math.sin(x); }
+		@Override public double cos(double x) { return Math.cos(x); }
+		@Override public double atan2(double y, double x) { return Math.atan2(y, x); }
+		@Override public double asin(double x) { return Math.asin(x); }
+		@Override public double acos(double x) { return Math.acos(x); }
+		@Override public double invSqrt(double x) { return 1 / Math.sqrt(x); }
+	},
+	FAST {
+		@Override public double sin(double x) { return FastMath.sin(x); }
+		@Override public double cos(double x) { return FastMath.cos(x); }
+		@Override public double atan2(double y, double x) { return FastMath.atan2(y, x); }
+		@Override public double asin(double x) { return FastMath.asin(x); }
+		@Override public double acos(double x) { return FastMath.acos(x); }
+		@Override public double invSqrt(double x) { return FastMath.invSqrt(x); }
+	};
+
+	public abstract double sin(double x);
+
+	public abstract double cos(double x);
+
+	public abstract double atan2(double y, double x);
+
+	public abstract double asin(double x);
+
+	public abstract double acos(double x);
+
+	public abstract double invSqrt(double x);
+}
@@ -0,0 +1,144 @@
+package math;
+
+import java.nio.ByteBuffer;
+
+import static java.lang.Math.*;
+
+// mutable counterpart of Quaternion for the control loop, every op writes into this and returns it
+public final class MutableQuaternion {
+	private static final double SMALL_HALF_ANGLE2 = 1e-4; // half angle below 0.01 rad
+
+	// x0 + x1 * i + x2 * j + x3 * k
+	public double x0, x1, x2, x3;
+
+	public MutableQuaternion() {
+		this(1, 0, 0, 0);
+	}
+
+	public MutableQuaternion(double x0, double x1, double x2, double x3) {
+		set(x0, x1, x2, x3);
+	}
+
+	public MutableQuaternion set(double x0, double x1, double x2, double x3) {
+		this.x0 = x0;
+		this.x1 = x1;
+		this.x2 = x2;
+		this.x3 = x3;
+		return this;
+	}
+
+	public MutableQuaternion set(Quaternion q) {
+		return set(q.x0(), q.x1(), q.x2(), q.x3());
+	}
+
+	public MutableQuaternion set(MutableQuaternion q) {
+		return set(q.x0, q.x1, q.x2, q.x3);
+	}
+
+	public MutableQuaternion setIdentity() {
+		return set(1, 0, 0, 0);
+	}
+
+	public MutableQuaternion setAxisAngle(double angle, double ax, double ay, double az) {
+		double sa = sin(angle / 2);
+		return set(cos(angle / 2), ax * sa, ay * sa, az * sa);
+	}
+
+	// rotation by |r| radians about r, the usual way to turn gyro rates * dt into a quaternion
+	public MutableQuaternion setRotationVector(double rx, double ry, double rz) {
+		return setRotationVector(rx, ry, rz, MathMode.EXACT);
+	}
+
+	public MutableQuaternion setRotationVector(double rx, double ry, double rz, MathMode math) {
+		double halfAngle2 = (rx * rx + ry * ry + rz * rz) / 4;
+
+		double c, s; // cos(angle / 2) and sin(angle / 2) / angle
+		if (halfAngle2 < SMALL_HALF_ANGLE2) {
+			// taylor series, the next terms are below 1e-15 here and no sqrt is needed
+			c = 1 - halfAngle2 / 2 + halfAngle2 * halfAngle2 / 24;
+			s = 0.5 * (1 - halfAngle2 / 6 + halfAngle2 * halfAngle2 / 120);
+		} else {
+			double halfAngle = Math.sqrt(halfAngle2);
+			c = math.cos(halfAngle);
+			s = math.sin(halfAngle) / (2 * halfAngle);
+		}
+		return set(c, rx * s, ry * s, rz * s);
+	}
+
+	public double norm() {
+		return sqrt(x0 * x0 + x1 * x1 + x2 * x2 + x3 * x3);
+	}
+
+	public MutableQuaternion normalize() {
+		double mag = norm();
+		if (mag == 0) return setIdentity();
+		return scale(1 / mag);
+	}
+
+	public MutableQuaternion scale(double s) {
+		return set(x0 * s, x1 * s, x2 * s, x3 * s);
+	}
+
+	public MutableQuaternion conj() {
+		return set(x0, -x1, -x2, -x3);
+	}
+
+	// this = a * b, safe when this aliases a or b
+	public MutableQuaternion mul(MutableQuaternion a, MutableQuaternion b) {
+		return mul(a.x0, a.x1, a.x2, a.x3, b.x0, b.x1, b.x2, b.x3);
+	}
+
+	// this = this * b
+	public MutableQuaternion mul(MutableQuaternion b) {
+		return mul(this, b);
+	}
+
+	// this = a * this
+	public MutableQuaternion preMul(MutableQuaternion a) {
+		return mul(a, this);
+	}
+
+	// this = a * b', the usual error quaternion between a target and an estimate
+	public MutableQuaternion mulConj(MutableQuaternion a, MutableQuaternion b) {
+		return mul(a.x0, a.x1, a.x2, a.x3, b.x0, -b.x1, -b.x2, -b.x3);
+	}
+
+	private MutableQuaternion mul(double a0, double a1, double a2, double a3, double b0, double b1, double b2, double b3) {
+		return set(
+				a0 * b0 - a1 * b1 - a2 * b2 - a3 * b3,
+				a0 * b1 + a1 * b0 + a2 * b3 - a3 * b2,
+				a0 * b2 - a1 * b3 + a2 * b0 + a3 * b1,
+				a0 * b3 + a1 * b2 - a2 * b1 + a3 * b0);
+	}
+
+	/*
+	small angle rotation vector of this (unit) error quaternion, 2 * (x1, x2, x3) with the sign of x0 so the
+	short way round is taken. Exact in direction, the length is 2 sin(angle / 2), within angle^3 / 24 of the
+	angle, and 5 flops against a rotation plus atan2 per axis
+	 */
+	public MutableVector3 errorVector(MutableVector3 out) {
+		double s = x0 < 0 ? -2 : 2;
+		return out.set(x1 * s, x2 * s, x3 * s);
+	}
+
+	public MutableQuaternion fractional(double t) { // lerp between identity, see Quaternion.fractional
+		return set(1-t + t*x0, x1*t, x2*t, x3*t).normalize();
+	}
+
+	// little endian, same layout as Quaternion.asBytes
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putDouble(x0);
+		buffer.putDouble(x1);
+		buffer.putDouble(x2);
+		buffer.putDouble(x3);
+	}
+
+	public Quaternion toQuaternion() {
+		return new Quaternion(x0, x1, x2, x3);
+	}
+
+	@Override
+	public String toString() {
+		return x0 + " + " + x1 + "i + " + x2 + "j + " + x3 + "k";
+	}
+}
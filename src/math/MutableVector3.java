@@ -0,0 +1,110 @@
+package math;
+
+import java.nio.ByteBuffer;
+
+import static java.lang.Math.sqrt;
+
+// mutable counterpart of Vector3 for the control loop, every op writes into this and returns it
+public final class MutableVector3 {
+	public double x, y, z;
+
+	public MutableVector3() {
+	}
+
+	public MutableVector3(double x, double y, double z) {
+		set(x, y, z);
+	}
+
+	public MutableVector3 set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+
+	public MutableVector3 set(Vector3 v) {
+		return set(v.x(), v.y(), v.z());
+	}
+
+	public MutableVector3 set(MutableVector3 v) {
+		return set(v.x, v.y, v.z);
+	}
+
+	public double norm() {
+		return sqrt(norm2());
+	}
+
+	public double norm2() {
+		return x*x + y*y + z*z;
+	}
+
+	public double dot(MutableVector3 b) {
+		return x * b.x + y * b.y + z * b.z;
+	}
+
+	public MutableVector3 add(double bx, double by, double bz) {
+		return set(x + bx, y + by, z + bz);
+	}
+
+	public MutableVector3 add(MutableVector3 b) {
+		return add(b.x, b.y, b.z);
+	}
+
+	public MutableVector3 sub(MutableVector3 b) {
+		return add(-b.x, -b.y, -b.z);
+	}
+
+	public MutableVector3 scale(double s) {
+		return set(x * s, y * s, z * s);
+	}
+
+	public MutableVector3 normalize() {
+		double mag = norm();
+		if (mag == 0) return this; // no divide by 0, same as Vector3.normalized
+		return scale(1 / mag);
+	}
+
+	// this = a x b, safe when this aliases a or b
+	public MutableVector3 cross(MutableVector3 a, MutableVector3 b) {
+		return set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x);
+	}
+
+	// this = q * this * q', unrolled version of Vector3.rotateBy
+	public MutableVector3 rotate(MutableQuaternion q) {
+		// p = q * (0, v)
+		double p0 = -q.x1 * x - q.x2 * y - q.x3 * z;
+		double p1 = q.x0 * x + q.x2 * z - q.x3 * y;
+		double p2 = q.x0 * y - q.x1 * z + q.x3 * x;
+		double p3 = q.x0 * z + q.x1 * y - q.x2 * x;
+
+		// vector part of p * q'
+		return set(
+				-p0 * q.x1 + p1 * q.x0 - p2 * q.x3 + p3 * q.x2,
+				-p0 * q.x2 + p1 * q.x3 + p2 * q.x0 - p3 * q.x1,
+				-p0 * q.x3 - p1 * q.x2 + p2 * q.x1 + p3 * q.x0);
+	}
+
+	// this = m * this
+	public MutableVector3 rotate(RotationMatrix m) {
+		return set(
+				m.m00 * x + m.m01 * y + m.m02 * z,
+				m.m10 * x + m.m11 * y + m.m12 * z,
+				m.m20 * x + m.m21 * y + m.m22 * z);
+	}
+
+	// little endian, same layout as Vector3.toBytes
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putDouble(x);
+		buffer.putDouble(y);
+		buffer.putDouble(z);
+	}
+
+	public Vector3 toVector3() {
+		return new Vector3(x, y, z);
+	}
+
+	@Override
+	public String toString() {
+		return "[%.3f, %.3f, %.3f]".formatted(x, y, z);
+	}
+}
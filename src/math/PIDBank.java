@@ -0,0 +1,172 @@
+package math;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import static java.lang.Math.*;
+
+/*
+Cascaded attitude controller for roll, pitch and yaw in one pass. Per axis the angle loop turns the angle
+error into a rate setpoint and the rate loop turns the rate error into an output:
+
+    angle error --[angle PID]--> rate setpoint --(- gyro rate)--[rate PID]--> output
+
+State lives in flat arrays, angle loops at [axis] and rate loops at [3 + axis]. The D terms act on the
+measurement rather than the error so setpoint steps don't kick. For the angle loop that derivative is the
+gyro rate itself, so only the rate loop differences its input.
+
+Gains are immutable snapshots swapped through an AtomicReference, a tuning thread can replace them at any
+time and update() always sees one complete set.
+ */
+public final class PIDBank {
+    public static final int ROLL = 0, PITCH = 1, YAW = 2;
+
+    // kI is per second, integralLimit bounds the I term and outputLimit the whole output, both symmetric.
+    // dCutoff (Hz) low passes the D term, 0 disables the filter
+    public record Gains(double kP, double kI, double kD, double dCutoff, double integralLimit, double outputLimit) {
+        public Gains {
+            if (kP < 0 || kI < 0 || kD < 0 || dCutoff < 0 || integralLimit < 0 || outputLimit < 0) {
+                throw new IllegalArgumentException("gains and limits must be non negative");
+            }
+        }
+
+        public static Gains of(double kP, double kI, double kD) {
+            return new Gains(kP, kI, kD, 0, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+
+        public Gains withDCutoff(double dCutoff) {
+            return new Gains(kP, kI, kD, dCutoff, integralLimit, outputLimit);
+        }
+
+        public Gains withLimits(double integralLimit, double outputLimit) {
+            return new Gains(kP, kI, kD, dCutoff, integralLimit, outputLimit);
+        }
+    }
+
+    public record AxisGains(Gains angle, Gains rate) {
+    }
+
+    public record GainSet(AxisGains roll, AxisGains pitch, AxisGains yaw) {
+        public AxisGains axis(int axis) {
+            return switch (axis) {
+                case ROLL -> roll;
+                case PITCH -> pitch;
+                case YAW -> yaw;
+                default -> throw new IndexOutOfBoundsException(axis);
+            };
+        }
+    }
+
+    // a GainSet flattened into the same [loop * 3 + axis] layout as the state, never written after construction
+    private static final class Snapshot {
+        final GainSet gains;
+        final double[] kP = new double[6], kI = new double[6], kD = new double[6];
+        final double[] dTimeConstant = new double[6], integralLimit = new double[6], outputLimit = new double[6];
+
+        Snapshot(GainSet gains) {
+            this.gains = gains;
+            for (int axis = 0; axis < 3; axis++) {
+                set(axis, gains.axis(axis).angle());
+                set(3 + axis, gains.axis(axis).rate());
+            }
+        }
+
+        private void set(int i, Gains g) {
+            kP[i] = g.kP();
+            kI[i] = g.kI();
+            kD[i] = g.kD();
+            dTimeConstant[i] = g.dCutoff() > 0 ? 1 / (2 * PI * g.dCutoff()) : 0;
+            integralLimit[i] = g.integralLimit();
+            outputLimit[i] = g.outputLimit();
+        }
+    }
+
+    private final AtomicReference<Snapshot> gains;
+
+    private final double[] integral = new double[6]; // the I term itself, so it's bounded in output units
+    private final double[] derivative = new double[6]; // filtered d(measurement)/dt
+    private final double[] lastRate = new double[3];
+    private final double[] rateSetpoint = new double[3];
+    private final boolean[] primed = new boolean[3]; // false until an axis has a previous sample to difference
+
+    public PIDBank(GainSet gains) {
+        this.gains = new AtomicReference<>(new Snapshot(gains));
+    }
+
+    public GainSet gains() {
+        return gains.get().gains;
+    }
+
+    public void setGains(GainSet gainSet) {
+        gains.set(new Snapshot(gainSet));
+    }
+
+    // for tuners that only change a few terms, retried if another thread swapped the gains in between
+    public GainSet updateGains(UnaryOperator<GainSet> update) {
+        return gains.updateAndGet(s -> new Snapshot(update.apply(s.gains))).gains;
+    }
+
+    /*
+    angleError and rate are indexed by ROLL, PITCH, YAW, angleError in rad and rate (rad/s) the gyro rate
+    about the same axes. Writes the three outputs into output.
+     */
+    public void update(double dt, double[] angleError, double[] rate, double[] output) {
+        var g = gains.get(); // one snapshot for the whole pass
+
+        for (int axis = 0; axis < 3; axis++) {
+            double r = rate[axis];
+            boolean first = !primed[axis] || !(dt > 0);
+            primed[axis] = true;
+
+            // angle loop, d(angle)/dt is the gyro rate
+            double sp = step(g, axis, angleError[axis], r, dt, first);
+            rateSetpoint[axis] = sp;
+
+            // rate loop, differences the gyro for d(rate)/dt
+            double rateDerivative = first ? 0 : (r - lastRate[axis]) / dt;
+            lastRate[axis] = r;
+            double out = step(g, 3 + axis, sp - r, rateDerivative, dt, first);
+
+            if (out != out) { // NaN input, drop this axis' state instead of poisoning it
+                resetAxis(axis);
+                out = 0;
+            }
+            output[axis] = out;
+        }
+    }
+
+    private double step(Snapshot g, int i, double error, double measurementDerivative, double dt, boolean first) {
+        if (!first) {
+            integral[i] = clamp(integral[i] + g.kI[i] * error * dt, g.integralLimit[i]);
+
+            double tau = g.dTimeConstant[i];
+            derivative[i] = tau == 0 ? measurementDerivative
+                    : derivative[i] + dt / (tau + dt) * (measurementDerivative - derivative[i]);
+        } else {
+            derivative[i] = measurementDerivative;
+        }
+
+        return clamp(g.kP[i] * error + integral[i] - g.kD[i] * derivative[i], g.outputLimit[i]);
+    }
+
+    private static double clamp(double value, double limit) {
+        return max(-limit, min(limit, value));
+    }
+
+    // rate setpoint the angle loop asked for on the last update, rad/s
+    public double rateSetpoint(int axis) {
+        return rateSetpoint[axis];
+    }
+
+    public void reset() {
+        for (int axis = 0; axis < 3; axis++) resetAxis(axis);
+    }
+
+    private void resetAxis(int axis) {
+        integral[axis] = integral[3 + axis] = 0;
+        derivative[axis] = derivative[3 + axis] = 0;
+        lastRate[axis] = 0;
+        rateSetpoint[axis] = 0;
+        primed[axis] = false;
+    }
+}
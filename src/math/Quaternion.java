@@ -147,17 +147,38 @@ public record Quaternion(double x0, double x1, double x2, double x3) {
     }
 
     public Quaternion ln() {
-        double r  = sqrt(x1*x1+x2*x2+x3*x3);
-        double t  = r > 0.00001 ? atan2(r, x0) / r : 0.0;
-        double x = 0.5 * log(x0*x0+x1*x1+x2*x2+x3*x3);
+        double r2 = x1*x1+x2*x2+x3*x3;
+        double t;
+        if (x0 > 0 && r2 < 1e-6 * x0 * x0) {
+            // small angle, atan(u) / r with u = r / x0 as a series, exact to ~1e-19
+            double u2 = r2 / (x0 * x0);
+            t = (1 - u2 / 3 + u2 * u2 / 5) / x0;
+        } else {
+            double r = sqrt(r2);
+            t = r > 0 ? atan2(r, x0) / r : 0.0;
+        }
+        double x = 0.5 * log(x0*x0+r2);
         return new Quaternion(x, x1*t, x2*t, x3*t);
     }
 
     public Quaternion exp() {
-        double r = sqrt(x1*x1+x2*x2+x3*x3);
+        double r2 = x1*x1+x2*x2+x3*x3;
         double et = Math.exp(x0);
-        double s = r >= 0.00001 ? et * sin(r) / r : 0.0;
-        return new Quaternion(et * cos(r), x1*s, x2*s, x3*s);
+        double c, s;
+        if (r2 < 1e-4) {
+            // small angle, cos(r) and sin(r) / r as series, exact to ~1e-15
+            c = 1 - r2 / 2 + r2 * r2 / 24;
+            s = 1 - r2 / 6 + r2 * r2 / 120;
+        } else {
+            double r = sqrt(r2);
+            c = cos(r);
+            s = sin(r) / r;
+        }
+        return new Quaternion(et * c, x1*s*et, x2*s*et, x3*s*et);
+    }
+
+    public RotationMatrix toRotationMatrix() {
+        return RotationMatrix.of(this);
     }
 
     public static Quaternion rotationBetween(Vector3 a, Vector3 b) {
@@ -0,0 +1,57 @@
+package math;
+
+// struct of arrays batch of quaternions, see Vector3Buffer
+public final class QuaternionBuffer {
+	final double[] x0, x1, x2, x3;
+	private final int size;
+
+	public QuaternionBuffer(int size) {
+		this.size = size;
+		this.x0 = new double[size];
+		this.x1 = new double[size];
+		this.x2 = new double[size];
+		this.x3 = new double[size];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Quaternion get(int i) {
+		return new Quaternion(x0[i], x1[i], x2[i], x3[i]);
+	}
+
+	public MutableQuaternion get(int i, MutableQuaternion out) {
+		return out.set(x0[i], x1[i], x2[i], x3[i]);
+	}
+
+	public QuaternionBuffer set(int i, double x0, double x1, double x2, double x3) {
+		this.x0[i] = x0;
+		this.x1[i] = x1;
+		this.x2[i] = x2;
+		this.x3[i] = x3;
+		return this;
+	}
+
+	public QuaternionBuffer set(int i, Quaternion q) {
+		return set(i, q.x0(), q.x1(), q.x2(), q.x3());
+	}
+
+	// out[i] = this[i] * b[i], out may be either input
+	public QuaternionBuffer mul(QuaternionBuffer b, QuaternionBuffer out) {
+		checkSize(b, out);
+		BatchKernels.INSTANCE.mul(this, b, out);
+		return out;
+	}
+
+	// zero quaternions become the identity, like MutableQuaternion.normalize
+	public QuaternionBuffer normalize(QuaternionBuffer out) {
+		checkSize(this, out);
+		BatchKernels.INSTANCE.normalize(this, out);
+		return out;
+	}
+
+	private void checkSize(QuaternionBuffer b, QuaternionBuffer out) {
+		if (b.size != size || out.size != size) throw new IllegalArgumentException("size mismatch");
+	}
+}
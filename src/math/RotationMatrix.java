@@ -0,0 +1,75 @@
+package math;
+
+// direction cosine matrix of a quaternion, build it once and rotate many vectors with 9 multiply-adds each
+public final class RotationMatrix {
+	// row major, v' = M v
+	public double m00, m01, m02;
+	public double m10, m11, m12;
+	public double m20, m21, m22;
+
+	public RotationMatrix() {
+		setIdentity();
+	}
+
+	public static RotationMatrix of(Quaternion q) {
+		return new RotationMatrix().set(q.x0(), q.x1(), q.x2(), q.x3());
+	}
+
+	public RotationMatrix setIdentity() {
+		return set(1, 0, 0, 0);
+	}
+
+	public RotationMatrix set(Quaternion q) {
+		return set(q.x0(), q.x1(), q.x2(), q.x3());
+	}
+
+	public RotationMatrix set(MutableQuaternion q) {
+		return set(q.x0, q.x1, q.x2, q.x3);
+	}
+
+	// same result as q * v * q', including the |q|^2 scale when q isn't normalized
+	public RotationMatrix set(double q0, double q1, double q2, double q3) {
+		double q00 = q0 * q0, q11 = q1 * q1, q22 = q2 * q2, q33 = q3 * q3;
+		double q01 = q0 * q1, q02 = q0 * q2, q03 = q0 * q3;
+		double q12 = q1 * q2, q13 = q1 * q3, q23 = q2 * q3;
+
+		m00 = q00 + q11 - q22 - q33;
+		m01 = 2 * (q12 - q03);
+		m02 = 2 * (q13 + q02);
+
+		m10 = 2 * (q12 + q03);
+		m11 = q00 - q11 + q22 - q33;
+		m12 = 2 * (q23 - q01);
+
+		m20 = 2 * (q13 - q02);
+		m21 = 2 * (q23 + q01);
+		m22 = q00 - q11 - q22 + q33;
+		return this;
+	}
+
+	public Vector3 apply(Vector3 v) {
+		double x = v.x(), y = v.y(), z = v.z();
+		return new Vector3(
+				m00 * x + m01 * y + m02 * z,
+				m10 * x + m11 * y + m12 * z,
+				m20 * x + m21 * y + m22 * z);
+	}
+
+	// rotates count packed [x, y, z] triples in place
+	public void rotate(double[] xyz, int count) {
+		if (count * 3 > xyz.length) throw new IllegalArgumentException("count exceeds array length");
+
+		for (int i = 0, end = count * 3; i < end; i += 3) {
+			double x = xyz[i], y = xyz[i + 1], z = xyz[i + 2];
+			xyz[i] = m00 * x + m01 * y + m02 * z;
+			xyz[i + 1] = m10 * x + m11 * y + m12 * z;
+			xyz[i + 2] = m20 * x + m21 * y + m22 * z;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[[%.3f, %.3f, %.3f], [%.3f, %.3f, %.3f], [%.3f, %.3f, %.3f]]".formatted(
+				m00, m01, m02, m10, m11, m12, m20, m21, m22);
+	}
+}
@@ -0,0 +1,72 @@
+package math;
+
+import java.util.Arrays;
+
+/*
+Streaming mean and variance of a few channels, one sample at a time and without allocating. Welford's
+update with the weight max(1/n, 1/window):
+
+    d = x - mean
+    mean += w d
+    variance = (1 - w) (variance + w d^2)
+
+For the first window samples that's the exact running mean and population variance, after that it turns
+into an exponentially weighted one with a time constant of about window samples so it follows slow drift.
+ */
+public final class RunningStatistics {
+	private final double minWeight;
+	private final long[] count;
+	private final double[] mean;
+	private final double[] variance;
+
+	public RunningStatistics(int channels, int window) {
+		if (channels <= 0 || window <= 0)
+			throw new IllegalArgumentException("channels and window must be positive");
+		this.minWeight = 1.0 / window;
+		this.count = new long[channels];
+		this.mean = new double[channels];
+		this.variance = new double[channels];
+	}
+
+	public void add(int channel, double x) {
+		long n = ++count[channel];
+		double w = Math.max(1.0 / n, minWeight);
+		double d = x - mean[channel];
+		double step = w * d;
+		mean[channel] += step;
+		variance[channel] = (1 - w) * (variance[channel] + d * step);
+	}
+
+	public double mean(int channel) {
+		return mean[channel];
+	}
+
+	public double variance(int channel) {
+		return variance[channel];
+	}
+
+	public long count(int channel) {
+		return count[channel];
+	}
+
+	public int channels() {
+		return count.length;
+	}
+
+	// moves the mean by delta, the variance around it stays
+	public void shift(int channel, double delta) {
+		mean[channel] += delta;
+	}
+
+	public void reset(int channel) {
+		count[channel] = 0;
+		mean[channel] = 0;
+		variance[channel] = 0;
+	}
+
+	public void reset() {
+		Arrays.fill(count, 0);
+		Arrays.fill(mean, 0);
+		Arrays.fill(variance, 0);
+	}
+}
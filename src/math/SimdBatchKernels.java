@@ -0,0 +1,199 @@
+package math;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// jdk.incubator.vector versions of the BatchKernels loops, whole lanes here and the scalar loop for the tail.
+// plain mul/add rather than fma so the element wise results match the scalar path bit for bit. sum is the
+// exception, see there
+final class SimdBatchKernels extends BatchKernels {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+
+	@Override
+	boolean vectorized() {
+		return true;
+	}
+
+	@Override
+	void add(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			load(a.x, i).add(load(b.x, i)).intoArray(out.x, i);
+			load(a.y, i).add(load(b.y, i)).intoArray(out.y, i);
+			load(a.z, i).add(load(b.z, i)).intoArray(out.z, i);
+		}
+		add(a, b, out, i, n);
+	}
+
+	@Override
+	void sub(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			load(a.x, i).sub(load(b.x, i)).intoArray(out.x, i);
+			load(a.y, i).sub(load(b.y, i)).intoArray(out.y, i);
+			load(a.z, i).sub(load(b.z, i)).intoArray(out.z, i);
+		}
+		sub(a, b, out, i, n);
+	}
+
+	@Override
+	void scale(Vector3Buffer a, double s, Vector3Buffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			load(a.x, i).mul(s).intoArray(out.x, i);
+			load(a.y, i).mul(s).intoArray(out.y, i);
+			load(a.z, i).mul(s).intoArray(out.z, i);
+		}
+		scale(a, s, out, i, n);
+	}
+
+	@Override
+	void normalize(Vector3Buffer a, Vector3Buffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			var x = load(a.x, i);
+			var y = load(a.y, i);
+			var z = load(a.z, i);
+			var norm2 = x.mul(x).add(y.mul(y)).add(z.mul(z));
+			VectorMask<Double> zero = norm2.eq(0);
+			var inv = DoubleVector.broadcast(SPECIES, 1).div(norm2.sqrt()).blend(1, zero);
+			x.mul(inv).intoArray(out.x, i);
+			y.mul(inv).intoArray(out.y, i);
+			z.mul(inv).intoArray(out.z, i);
+		}
+		normalize(a, out, i, n);
+	}
+
+	@Override
+	void dot(Vector3Buffer a, Vector3Buffer b, double[] out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			load(a.x, i).mul(load(b.x, i))
+					.add(load(a.y, i).mul(load(b.y, i)))
+					.add(load(a.z, i).mul(load(b.z, i)))
+					.intoArray(out, i);
+		}
+		dot(a, b, out, i, n);
+	}
+
+	@Override
+	void cross(Vector3Buffer a, Vector3Buffer b, Vector3Buffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			var ax = load(a.x, i);
+			var ay = load(a.y, i);
+			var az = load(a.z, i);
+			var bx = load(b.x, i);
+			var by = load(b.y, i);
+			var bz = load(b.z, i);
+			ay.mul(bz).sub(az.mul(by)).intoArray(out.x, i);
+			az.mul(bx).sub(ax.mul(bz)).intoArray(out.y, i);
+			ax.mul(by).sub(ay.mul(bx)).intoArray(out.z, i);
+		}
+		cross(a, b, out, i, n);
+	}
+
+	@Override
+	void rotate(RotationMatrix m, Vector3Buffer a, Vector3Buffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			var x = load(a.x, i);
+			var y = load(a.y, i);
+			var z = load(a.z, i);
+			x.mul(m.m00).add(y.mul(m.m01)).add(z.mul(m.m02)).intoArray(out.x, i);
+			x.mul(m.m10).add(y.mul(m.m11)).add(z.mul(m.m12)).intoArray(out.y, i);
+			x.mul(m.m20).add(y.mul(m.m21)).add(z.mul(m.m22)).intoArray(out.z, i);
+		}
+		rotate(m, a, out, i, n);
+	}
+
+	@Override
+	void rotate(QuaternionBuffer q, Vector3Buffer a, Vector3Buffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			var q0 = load(q.x0, i);
+			var q1 = load(q.x1, i);
+			var q2 = load(q.x2, i);
+			var q3 = load(q.x3, i);
+			var x = load(a.x, i);
+			var y = load(a.y, i);
+			var z = load(a.z, i);
+
+			var p0 = q1.neg().mul(x).sub(q2.mul(y)).sub(q3.mul(z));
+			var p1 = q0.mul(x).add(q2.mul(z)).sub(q3.mul(y));
+			var p2 = q0.mul(y).sub(q1.mul(z)).add(q3.mul(x));
+			var p3 = q0.mul(z).add(q1.mul(y)).sub(q2.mul(x));
+
+			p0.neg().mul(q1).add(p1.mul(q0)).sub(p2.mul(q3)).add(p3.mul(q2)).intoArray(out.x, i);
+			p0.neg().mul(q2).add(p1.mul(q3)).add(p2.mul(q0)).sub(p3.mul(q1)).intoArray(out.y, i);
+			p0.neg().mul(q3).sub(p1.mul(q2)).add(p2.mul(q1)).add(p3.mul(q0)).intoArray(out.z, i);
+		}
+		rotate(q, a, out, i, n);
+	}
+
+	// one partial sum per lane, reduced at the end, adds in a different order than the scalar loop. So this
+	// and mean() agree with the scalar path only to rounding, not bit for bit
+	@Override
+	Vector3 sum(Vector3Buffer a) {
+		int n = a.size(), i = 0;
+		var x = DoubleVector.zero(SPECIES);
+		var y = DoubleVector.zero(SPECIES);
+		var z = DoubleVector.zero(SPECIES);
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			x = x.add(load(a.x, i));
+			y = y.add(load(a.y, i));
+			z = z.add(load(a.z, i));
+		}
+		return sum(a, i, n).add(new Vector3(
+				x.reduceLanes(VectorOperators.ADD),
+				y.reduceLanes(VectorOperators.ADD),
+				z.reduceLanes(VectorOperators.ADD)));
+	}
+
+	@Override
+	void mul(QuaternionBuffer a, QuaternionBuffer b, QuaternionBuffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			var a0 = load(a.x0, i);
+			var a1 = load(a.x1, i);
+			var a2 = load(a.x2, i);
+			var a3 = load(a.x3, i);
+			var b0 = load(b.x0, i);
+			var b1 = load(b.x1, i);
+			var b2 = load(b.x2, i);
+			var b3 = load(b.x3, i);
+			a0.mul(b0).sub(a1.mul(b1)).sub(a2.mul(b2)).sub(a3.mul(b3)).intoArray(out.x0, i);
+			a0.mul(b1).add(a1.mul(b0)).add(a2.mul(b3)).sub(a3.mul(b2)).intoArray(out.x1, i);
+			a0.mul(b2).sub(a1.mul(b3)).add(a2.mul(b0)).add(a3.mul(b1)).intoArray(out.x2, i);
+			a0.mul(b3).add(a1.mul(b2)).sub(a2.mul(b1)).add(a3.mul(b0)).intoArray(out.x3, i);
+		}
+		mul(a, b, out, i, n);
+	}
+
+	@Override
+	void normalize(QuaternionBuffer a, QuaternionBuffer out) {
+		int n = a.size(), i = 0;
+		for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+			var x0 = load(a.x0, i);
+			var x1 = load(a.x1, i);
+			var x2 = load(a.x2, i);
+			var x3 = load(a.x3, i);
+			var norm2 = x0.mul(x0).add(x1.mul(x1)).add(x2.mul(x2)).add(x3.mul(x3));
+			VectorMask<Double> zero = norm2.eq(0);
+			var inv = DoubleVector.broadcast(SPECIES, 1).div(norm2.sqrt());
+			// zero goes to the identity, x0 = 1 and the vector part 0
+			x0.mul(inv).blend(1, zero).intoArray(out.x0, i);
+			x1.mul(inv).blend(0, zero).intoArray(out.x1, i);
+			x2.mul(inv).blend(0, zero).intoArray(out.x2, i);
+			x3.mul(inv).blend(0, zero).intoArray(out.x3, i);
+		}
+		normalize(a, out, i, n);
+	}
+
+	private static DoubleVector load(double[] array, int i) {
+		return DoubleVector.fromArray(SPECIES, array, i);
+	}
+}
@@ -80,13 +80,18 @@ public record Vector3(double x, double y, double z) {
 	}
 
 	public static Vector3 rotateBy(Vector3 v, Quaternion q) {
-		return Vector3.ofQuaternion(q.mul(Quaternion.ofVector3(v)).mul(q.conj()));
+		return q.toRotationMatrix().apply(v);
 	}
 
 	public Vector3 rotatedBy(Quaternion q) {
 		return Vector3.rotateBy(this, q);
 	}
 
+	// prefer this when several vectors share the same rotation
+	public Vector3 rotatedBy(RotationMatrix m) {
+		return m.apply(this);
+	}
+
 	public static Vector3 ofBytes(byte[] bytes) {
 		var w = ByteBuffer.wrap(bytes).order(LITTLE_ENDIAN);
 		return Vector3.of(w.getDouble(), w.getDouble(), w.getDouble());
@@ -0,0 +1,135 @@
+package math;
+
+// fixed size struct of arrays batch of vectors, for logs, calibration and simulation where records would mean millions of allocations.
+// every op writes into out and returns it, out may be one of the inputs
+public final class Vector3Buffer {
+	final double[] x, y, z;
+	private final int size;
+
+	public Vector3Buffer(int size) {
+		this.size = size;
+		this.x = new double[size];
+		this.y = new double[size];
+		this.z = new double[size];
+	}
+
+	// packed [x, y, z] triples, e.g. straight from a log
+	public static Vector3Buffer ofPacked(double[] xyz) {
+		if (xyz.length % 3 != 0) throw new IllegalArgumentException("length is not a multiple of 3");
+
+		var buffer = new Vector3Buffer(xyz.length / 3);
+		for (int i = 0; i < buffer.size; i++) {
+			buffer.set(i, xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]);
+		}
+		return buffer;
+	}
+
+	// true when the batch ops run on the vector api, see BatchKernels
+	public static boolean vectorized() {
+		return BatchKernels.INSTANCE.vectorized();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double x(int i) {
+		return x[i];
+	}
+
+	public double y(int i) {
+		return y[i];
+	}
+
+	public double z(int i) {
+		return z[i];
+	}
+
+	public Vector3 get(int i) {
+		return new Vector3(x[i], y[i], z[i]);
+	}
+
+	public Vector3Buffer set(int i, double x, double y, double z) {
+		this.x[i] = x;
+		this.y[i] = y;
+		this.z[i] = z;
+		return this;
+	}
+
+	public Vector3Buffer set(int i, Vector3 v) {
+		return set(i, v.x(), v.y(), v.z());
+	}
+
+	public double[] toPacked() {
+		var xyz = new double[size * 3];
+		for (int i = 0; i < size; i++) {
+			xyz[i * 3] = x[i];
+			xyz[i * 3 + 1] = y[i];
+			xyz[i * 3 + 2] = z[i];
+		}
+		return xyz;
+	}
+
+	public Vector3Buffer add(Vector3Buffer b, Vector3Buffer out) {
+		checkSize(b, out);
+		BatchKernels.INSTANCE.add(this, b, out);
+		return out;
+	}
+
+	public Vector3Buffer sub(Vector3Buffer b, Vector3Buffer out) {
+		checkSize(b, out);
+		BatchKernels.INSTANCE.sub(this, b, out);
+		return out;
+	}
+
+	public Vector3Buffer scale(double s, Vector3Buffer out) {
+		checkSize(this, out);
+		BatchKernels.INSTANCE.scale(this, s, out);
+		return out;
+	}
+
+	// zero vectors stay zero, like Vector3.normalized
+	public Vector3Buffer normalize(Vector3Buffer out) {
+		checkSize(this, out);
+		BatchKernels.INSTANCE.normalize(this, out);
+		return out;
+	}
+
+	public double[] dot(Vector3Buffer b, double[] out) {
+		checkSize(b, this);
+		if (out.length < size) throw new IllegalArgumentException("size mismatch");
+		BatchKernels.INSTANCE.dot(this, b, out);
+		return out;
+	}
+
+	public Vector3Buffer cross(Vector3Buffer b, Vector3Buffer out) {
+		checkSize(b, out);
+		BatchKernels.INSTANCE.cross(this, b, out);
+		return out;
+	}
+
+	// every vector by the same rotation
+	public Vector3Buffer rotate(RotationMatrix m, Vector3Buffer out) {
+		checkSize(this, out);
+		BatchKernels.INSTANCE.rotate(m, this, out);
+		return out;
+	}
+
+	// vector i by quaternion i, q v q'
+	public Vector3Buffer rotate(QuaternionBuffer q, Vector3Buffer out) {
+		checkSize(this, out);
+		if (q.size() != size) throw new IllegalArgumentException("size mismatch");
+		BatchKernels.INSTANCE.rotate(q, this, out);
+		return out;
+	}
+
+	// to rounding the same on the SIMD and the scalar path, the SIMD sum adds in another order
+	public Vector3 mean() {
+		if (size == 0) return Vector3.ZERO;
+		return BatchKernels.INSTANCE.sum(this).scale(1.0 / size);
+	}
+
+	private void checkSize(Vector3Buffer b, Vector3Buffer out) {
+		if (b.size != size || out.size != size) throw new IllegalArgumentException("size mismatch");
+	}
+}
@@ -4,35 +4,47 @@ import math.Complex;
 import math.FFT;
 
 public class ZFilter {
-	private final ImpulseResponse response;
-	private final Complex[] a;
-
-	private final double T;
+	private final double[] taps; // taps[j] weights the sample j steps back
+	private final double[] window; // last n samples stored twice, so the dot product never wraps
 
 	private int index;
 
 	public ZFilter(ImpulseResponse response, int order, double t) {
-		this.response = response;
-		this.a = new Complex[order];
-		T = t;
+		this.taps = design(response, order, t);
+		this.window = new double[2 * order];
+	}
+
+	// sample the response on the FFT grid once and turn it into FIR taps
+	private static double[] design(ImpulseResponse response, int order, double T) {
+		double[] re = new double[order / 2 + 1];
+		double[] im = new double[order / 2 + 1];
+
+		for (int i = 0; i < re.length; i++) {
+			double frequency = i * (1 / T) / order;
+			Complex s = Complex.ofCartesian(0, frequency * 2 * Math.PI);
+			re[i] = response.gain(s); // negative frequencies are the mirror of these bins
+			// z = e^sT
+		}
+
+		double[] taps = new double[order];
+		FFT.irfft(re, im, taps);
+		return taps;
 	}
 
 	public void filter(double value) {
-		a[index] = Complex.ofCartesian(value, 0);
-		index = (index + 1) % a.length;
+		index = (index + 1) % taps.length;
+		window[index] = value;
+		window[index + taps.length] = value;
 	}
 
 	public double value() {
-		var fft = FFT.fft(a);
+		int newest = index + taps.length;
 
-		for (int i = 0; i < fft.length; i++) {
-			double frequency = i * (1 / T) / fft.length;
-			Complex s = Complex.ofCartesian(0, frequency * 2 * Math.PI);
-			fft[i] = fft[i].times(response.gain(s));
-			// z = e^sT
+		double sum = 0;
+		for (int j = 0; j < taps.length; j++) {
+			sum += taps[j] * window[newest - j];
 		}
-		var ifft = FFT.ifft(fft);
-		return ifft[ifft.length - 1].a();
+		return sum;
 	}
 
 	public interface ImpulseResponse {
@@ -1,45 +1,182 @@
 package pose;
 
-import math.KalmanFilter;
-import math.Vector3;
-import org.apache.commons.math3.linear.MatrixUtils;
+import math.KalmanFilter3x2;
+import math.KalmanFilter3x2.SteadyState;
 
-import java.time.Duration;
-import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import static java.lang.Math.pow;
+import static java.lang.Math.abs;
 
 public class AltitudeFuser {
-	private final KalmanFilter altitudeFilter;
+	private static final int GAIN_CACHE_SIZE = 4;
+	private static final int SETTLE_UPDATES = 50; // updates at a new dt/variance before solving for its gain
+
+	// the Riccati solve can take milliseconds, it runs here and the full filter carries on until it's done
+	private static final ExecutorService SOLVER = Executors.newSingleThreadExecutor(
+			Thread.ofPlatform().daemon().name("altitude-gain-solver").priority(Thread.MIN_PRIORITY).factory());
+
+	private final KalmanFilter3x2 altitudeFilter;
+	private final double jerkVariance;
+
+	private final double[][] stateTransition = {
+			{1, 0, 0}, // state transition, dt terms filled in by update
+			{0, 1, 0},
+			{0, 0, 1}};
+	private final double[][] processNoise = new double[3][3];
+
+	// steady state gain mode, off while tolerance is negative
+	private double tolerance = -1;
+	private final OperatingPoint[] gainCache = new OperatingPoint[GAIN_CACHE_SIZE];
+	private int nextSlot;
+	private OperatingPoint active;
+
+	private double candidateDt, candidateAccelVariance, candidateAltitudeVariance;
+	private int settled;
+
+	private volatile OperatingPoint solved; // handed back by the solver
+	private boolean solving;
 
 	public AltitudeFuser() {
+		this(0);
+	}
 
-		this.altitudeFilter = new KalmanFilter(MatrixUtils.createRealMatrix(new double[][] {
+	// jerkVariance is the process noise, modelled as a random jerk held over each step
+	public AltitudeFuser(double jerkVariance) {
+		this.jerkVariance = jerkVariance;
+		this.altitudeFilter = new KalmanFilter3x2(new double[][] {
 				{1, 0, 0}, // observation
-				{0, 0, 1}}),
-				MatrixUtils.createRealMatrix(new double[3][4])); // control
+				{0, 0, 1}});
+	}
+
+	/*
+	 * At a fixed loop rate with constant sensor variances the Kalman gain converges, so solve for it once
+	 * per (dt, variances) and skip the covariance math. Falls back to the full filter whenever dt or either
+	 * variance is more than the relative tolerance away from every cached operating point. The gain for a new
+	 * operating point is solved in the background, update never waits for it.
+	 */
+	public void enableSteadyState(double tolerance) {
+		if (jerkVariance <= 0)
+			throw new IllegalStateException("steady state gain needs process noise, the gain decays to 0 without it");
+		this.tolerance = tolerance;
+	}
+
+	public boolean inSteadyState() {
+		return active != null;
 	}
 
 	public void update(double dt, double verticalAccel, double accelVariance, double barometerAltitude, double altitudeVariance) {
-		var stateTransition = MatrixUtils.createRealMatrix(new double[][] {
-				{1, dt, 0.5 * pow(dt, 2)}, // state transition
+		stateTransition[0][1] = dt;
+		stateTransition[0][2] = 0.5 * dt * dt;
+		stateTransition[1][2] = dt;
+
+		if (tolerance >= 0) {
+			selectGain(dt, accelVariance, altitudeVariance);
+
+			if (active != null) {
+				altitudeFilter.update(stateTransition, active.steadyState, barometerAltitude, verticalAccel);
+				return;
+			}
+		}
+
+		fillProcessNoise(dt, processNoise);
+		altitudeFilter.predict(stateTransition, processNoise);
+		altitudeFilter.correct(barometerAltitude, verticalAccel, altitudeVariance, accelVariance);
+	}
+
+	private void selectGain(double dt, double accelVariance, double altitudeVariance) {
+		var point = solved;
+		if (point != null) {
+			solved = null;
+			solving = false;
+			gainCache[nextSlot] = point;
+			nextSlot = (nextSlot + 1) % gainCache.length;
+		}
+
+		if (active != null) {
+			if (active.matches(dt, accelVariance, altitudeVariance, tolerance)) return;
+
+			// drifted off the operating point, hand the full filter a sensible covariance
+			altitudeFilter.resume(active.steadyState);
+			active = null;
+		}
+
+		for (var cached : gainCache) {
+			if (cached != null && cached.matches(dt, accelVariance, altitudeVariance, tolerance)) {
+				active = cached;
+				settled = 0;
+				return;
+			}
+		}
+
+		// new operating point, only pay for the Riccati solve once it holds still
+		if (settled > 0 && OperatingPoint.near(candidateDt, dt, tolerance)
+				&& OperatingPoint.near(candidateAccelVariance, accelVariance, tolerance)
+				&& OperatingPoint.near(candidateAltitudeVariance, altitudeVariance, tolerance)) {
+			settled++;
+		} else {
+			candidateDt = dt;
+			candidateAccelVariance = accelVariance;
+			candidateAltitudeVariance = altitudeVariance;
+			settled = 1;
+		}
+
+		// one solve at a time, an operating point that still holds once it's done gets the next one
+		if (settled >= SETTLE_UPDATES && !solving) {
+			solving = true;
+			settled = 0;
+			double solveDt = candidateDt, solveAccelVariance = candidateAccelVariance, solveAltitudeVariance = candidateAltitudeVariance;
+			SOLVER.execute(() -> solved = solve(solveDt, solveAccelVariance, solveAltitudeVariance));
+		}
+	}
+
+	// runs on the solver thread, touches nothing update uses
+	private OperatingPoint solve(double dt, double accelVariance, double altitudeVariance) {
+		double[][] transition = {
+				{1, dt, 0.5 * dt * dt},
 				{0, 1, dt},
-				{0, 0, 1}});
+				{0, 0, 1}};
+		var noise = new double[3][3];
+		fillProcessNoise(dt, noise);
+
+		var steadyState = altitudeFilter.solveSteadyState(transition, noise, altitudeVariance, accelVariance);
+		return new OperatingPoint(dt, accelVariance, altitudeVariance, steadyState);
+	}
+
+	// Q = g g' * jerkVariance with g = [dt^3/6, dt^2/2, dt]
+	private void fillProcessNoise(double dt, double[][] q) {
+		double g0 = dt * dt * dt / 6, g1 = dt * dt / 2, g2 = dt;
 
-		altitudeFilter.predict(stateTransition, MatrixUtils.createColumnRealMatrix(new double[4]));
-		altitudeFilter.correct(MatrixUtils.createColumnRealMatrix(new double[]{barometerAltitude, verticalAccel}), MatrixUtils.createRealDiagonalMatrix(new double[] {altitudeVariance, accelVariance}));
+		q[0][0] = g0 * g0 * jerkVariance;
+		q[1][1] = g1 * g1 * jerkVariance;
+		q[2][2] = g2 * g2 * jerkVariance;
+		q[0][1] = q[1][0] = g0 * g1 * jerkVariance;
+		q[0][2] = q[2][0] = g0 * g2 * jerkVariance;
+		q[1][2] = q[2][1] = g1 * g2 * jerkVariance;
 	}
 
 	public double altitude() {
-		return altitudeFilter.state()[2];
+		return altitudeFilter.state(2);
 	}
 
 	public double verticalVelocity() {
-		return altitudeFilter.state()[1];
+		return altitudeFilter.state(1);
 	}
 
 	public double verticalAccel() {
-		return altitudeFilter.state()[0];
+		return altitudeFilter.state(0);
+	}
+
+	private record OperatingPoint(double dt, double accelVariance, double altitudeVariance, SteadyState steadyState) {
+		boolean matches(double dt, double accelVariance, double altitudeVariance, double tolerance) {
+			return near(this.dt, dt, tolerance)
+					&& near(this.accelVariance, accelVariance, tolerance)
+					&& near(this.altitudeVariance, altitudeVariance, tolerance);
+		}
+
+		static boolean near(double expected, double actual, double tolerance) {
+			return abs(actual - expected) <= tolerance * abs(expected);
+		}
 	}
 
 }
@@ -0,0 +1,71 @@
+package pose;
+
+import math.MutableQuaternion;
+import math.MutableVector3;
+import math.RotationMatrix;
+import math.Vector3;
+import sensors.MPU6050;
+
+import static java.lang.Math.asin;
+import static java.lang.Math.sqrt;
+
+// fuses gyro rates (rad/s) and body accel (m/s^2, +z up at rest) into an orientation, body to global
+public interface AttitudeEstimator {
+
+    void update(double dt, double gx, double gy, double gz, double ax, double ay, double az);
+
+    default void update(double dt, Vector3 gyroRates, Vector3 bodyAccel) {
+        update(dt, gyroRates.x(), gyroRates.y(), gyroRates.z(), bodyAccel.x(), bodyAccel.y(), bodyAccel.z());
+    }
+
+    default void update(double dt, MPU6050.Reading reading) {
+        setSensorVariances(reading.gyroVariance().x(), reading.gyroVariance().y(), reading.gyroVariance().z(),
+                reading.accelVariance().x(), reading.accelVariance().y(), reading.accelVariance().z());
+        update(dt, reading.gyro(), reading.accel());
+    }
+
+    // live per axis sensor noise in (rad/s)^2 and (m/s^2)^2 for the updates that follow, e.g. from
+    // MPU6050.noise(). Estimators without a noise model ignore it
+    default void setSensorVariances(double gx, double gy, double gz, double ax, double ay, double az) {
+    }
+
+    // estimators that track gyro bias online only need a short calibrate() at startup
+    default boolean estimatesGyroBias() {
+        return false;
+    }
+
+    // updated in place, copy it to keep a snapshot
+    MutableQuaternion orientation();
+
+    // body accel rotated into the global frame with gravity removed, updated in place
+    MutableVector3 globalAccel();
+
+    // orientation() as a body to global matrix, rebuilt by every update, reuse it to rotate other body vectors
+    RotationMatrix rotation();
+
+    default void initFromAccel(Vector3 bodyAccel) {
+        // when quad is sitting still, initialize starting orientation from gravity vector
+        double accPitch = -asin(bodyAccel.normalized().x());
+        double accRoll = asin(bodyAccel.normalized().y());
+        double angle = sqrt(accRoll * accRoll + accPitch * accPitch);
+
+        if (angle == 0) orientation().setIdentity();
+        else orientation().setAxisAngle(angle, accRoll / angle, accPitch / angle, 0);
+    }
+
+    enum Type {
+        COMPLEMENTARY,
+        MADGWICK,
+        MAHONY,
+        MEKF;
+
+        public AttitudeEstimator create() {
+            return switch (this) {
+                case COMPLEMENTARY -> new Orientation();
+                case MADGWICK -> new MadgwickEstimator();
+                case MAHONY -> new MahonyEstimator();
+                case MEKF -> new MultiplicativeEKF();
+            };
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package pose;
+
+import math.MutableQuaternion;
+import math.MutableVector3;
+import math.RotationMatrix;
+
+import static drone.DroneConstants.MATH;
+import static sensors.MPU6050.G;
+
+// Madgwick's gradient descent filter, IMU only (https://x-io.co.uk/open-source-imu-and-ahrs-algorithms/)
+public class MadgwickEstimator implements AttitudeEstimator {
+    private final double beta; // how hard the accel pulls on the gyro integration
+
+    private final MutableQuaternion orientation = new MutableQuaternion();
+    private final MutableVector3 globalAccel = new MutableVector3();
+    private final RotationMatrix rotation = new RotationMatrix();
+
+    public MadgwickEstimator() {
+        this(0.1);
+    }
+
+    public MadgwickEstimator(double beta) {
+        this.beta = beta;
+    }
+
+    @Override
+    public void update(double dt, double gx, double gy, double gz, double ax, double ay, double az) {
+        double q0 = orientation.x0, q1 = orientation.x1, q2 = orientation.x2, q3 = orientation.x3;
+
+        // rate of change from the gyro, q' = q * (0, w) / 2
+        double qDot0 = 0.5 * (-q1 * gx - q2 * gy - q3 * gz);
+        double qDot1 = 0.5 * (q0 * gx + q2 * gz - q3 * gy);
+        double qDot2 = 0.5 * (q0 * gy - q1 * gz + q3 * gx);
+        double qDot3 = 0.5 * (q0 * gz + q1 * gy - q2 * gx);
+
+        double accelNorm2 = ax * ax + ay * ay + az * az;
+        if (accelNorm2 > 0) {
+            double invNorm = MATH.invSqrt(accelNorm2);
+            double nx = ax * invNorm, ny = ay * invNorm, nz = az * invNorm;
+
+            // gradient of the error between measured and predicted gravity
+            double q0q0 = q0 * q0, q1q1 = q1 * q1, q2q2 = q2 * q2, q3q3 = q3 * q3;
+            double s0 = 4 * q0 * q2q2 + 2 * q2 * nx + 4 * q0 * q1q1 - 2 * q1 * ny;
+            double s1 = 4 * q1 * q3q3 - 2 * q3 * nx + 4 * q0q0 * q1 - 2 * q0 * ny - 4 * q1 + 8 * q1 * q1q1 + 8 * q1 * q2q2 + 4 * q1 * nz;
+            double s2 = 4 * q0q0 * q2 + 2 * q0 * nx + 4 * q2 * q3q3 - 2 * q3 * ny - 4 * q2 + 8 * q2 * q1q1 + 8 * q2 * q2q2 + 4 * q2 * nz;
+            double s3 = 4 * q1q1 * q3 - 2 * q1 * nx + 4 * q2q2 * q3 - 2 * q2 * ny;
+
+            double stepNorm2 = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (stepNorm2 > 0) {
+                double step = beta * MATH.invSqrt(stepNorm2);
+                qDot0 -= step * s0;
+                qDot1 -= step * s1;
+                qDot2 -= step * s2;
+                qDot3 -= step * s3;
+            }
+        }
+
+        orientation.set(q0 + qDot0 * dt, q1 + qDot1 * dt, q2 + qDot2 * dt, q3 + qDot3 * dt).normalize();
+
+        // ACCELERATION IN GLOBAL-FRAME
+        rotation.set(orientation);
+        globalAccel.set(ax, ay, az).rotate(rotation).add(0, 0, -G);
+    }
+
+    @Override
+    public MutableQuaternion orientation() {
+        return orientation;
+    }
+
+    @Override
+    public MutableVector3 globalAccel() {
+        return globalAccel;
+    }
+
+    @Override
+    public RotationMatrix rotation() {
+        return rotation;
+    }
+}
@@ -0,0 +1,89 @@
+package pose;
+
+import math.MutableQuaternion;
+import math.MutableVector3;
+import math.RotationMatrix;
+
+import static drone.DroneConstants.MATH;
+import static sensors.MPU6050.G;
+
+// Mahony's nonlinear complementary filter, a PI loop on the gravity direction error
+public class MahonyEstimator implements AttitudeEstimator {
+    private final double kP, kI;
+
+    private final MutableQuaternion orientation = new MutableQuaternion();
+    private final MutableVector3 globalAccel = new MutableVector3();
+    private final RotationMatrix rotation = new RotationMatrix();
+
+    private double integralX, integralY, integralZ;
+
+    public MahonyEstimator() {
+        this(1, 0);
+    }
+
+    public MahonyEstimator(double kP, double kI) {
+        this.kP = kP;
+        this.kI = kI;
+    }
+
+    @Override
+    public void update(double dt, double gx, double gy, double gz, double ax, double ay, double az) {
+        double q0 = orientation.x0, q1 = orientation.x1, q2 = orientation.x2, q3 = orientation.x3;
+
+        double accelNorm2 = ax * ax + ay * ay + az * az;
+        if (accelNorm2 > 0) {
+            double invNorm = MATH.invSqrt(accelNorm2);
+            double nx = ax * invNorm, ny = ay * invNorm, nz = az * invNorm;
+
+            // predicted gravity direction in the body frame
+            double vx = 2 * (q1 * q3 - q0 * q2);
+            double vy = 2 * (q0 * q1 + q2 * q3);
+            double vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+
+            // error is the cross product of measured and predicted gravity
+            double ex = ny * vz - nz * vy;
+            double ey = nz * vx - nx * vz;
+            double ez = nx * vy - ny * vx;
+
+            if (kI > 0) {
+                integralX += kI * ex * dt;
+                integralY += kI * ey * dt;
+                integralZ += kI * ez * dt;
+                gx += integralX;
+                gy += integralY;
+                gz += integralZ;
+            }
+
+            gx += kP * ex;
+            gy += kP * ey;
+            gz += kP * ez;
+        }
+
+        // q' = q * (0, w) / 2
+        double hx = 0.5 * dt * gx, hy = 0.5 * dt * gy, hz = 0.5 * dt * gz;
+        orientation.set(
+                q0 - q1 * hx - q2 * hy - q3 * hz,
+                q1 + q0 * hx + q2 * hz - q3 * hy,
+                q2 + q0 * hy - q1 * hz + q3 * hx,
+                q3 + q0 * hz + q1 * hy - q2 * hx).normalize();
+
+        // ACCELERATION IN GLOBAL-FRAME
+        rotation.set(orientation);
+        globalAccel.set(ax, ay, az).rotate(rotation).add(0, 0, -G);
+    }
+
+    @Override
+    public MutableQuaternion orientation() {
+        return orientation;
+    }
+
+    @Override
+    public MutableVector3 globalAccel() {
+        return globalAccel;
+    }
+
+    @Override
+    public RotationMatrix rotation() {
+        return rotation;
+    }
+}
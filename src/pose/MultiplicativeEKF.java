@@ -0,0 +1,201 @@
+package pose;
+
+import math.MutableQuaternion;
+import math.MutableVector3;
+import math.RotationMatrix;
+import math.Vector3;
+import sensors.MPU6050;
+
+import static drone.DroneConstants.MATH;
+import static java.lang.Math.*;
+import static sensors.MPU6050.G;
+
+/*
+Error state (multiplicative) EKF over [attitude error, gyro bias]. The attitude itself lives in a
+quaternion, the filter only tracks a small rotation error on top of it plus the gyro bias, so the
+covariance is 6x6. That covariance is kept as three 3x3 blocks, attitude A, cross B and bias C,
+because the transition only ever touches them blockwise:
+
+    F = [ I - [w x] dt   -I dt ]      A' = Phi A Phi' - dt (Phi B + B' Phi') + dt^2 C + Q_att
+        [      0           I   ]      B' = Phi B - dt C,  C' = C + Q_bias
+ */
+public class MultiplicativeEKF implements AttitudeEstimator {
+    private static final double INITIAL_ATTITUDE_VARIANCE = pow(0.1, 2);
+    private static final double INITIAL_BIAS_VARIANCE = pow(toRadians(1), 2);
+    private static final double BIAS_DRIFT_VARIANCE = pow(toRadians(0.01), 2); // per second, bias random walk
+
+    private final MutableQuaternion orientation = new MutableQuaternion();
+    private final MutableVector3 globalAccel = new MutableVector3();
+    private final RotationMatrix rotation = new RotationMatrix();
+    private final MutableVector3 gyroBias = new MutableVector3();
+
+    // covariance blocks, row major 3x3
+    private final double[] a = new double[9], b = new double[9], c = new double[9];
+    private final double[] phi = new double[9], work = new double[9];
+    private final double[] pht = new double[6], error = new double[6];
+
+    private final MutableQuaternion step = new MutableQuaternion();
+
+    private double gyroVarianceX, gyroVarianceY, gyroVarianceZ;
+    private double accelVarianceX, accelVarianceY, accelVarianceZ;
+
+    public MultiplicativeEKF() {
+        a[0] = a[4] = a[8] = INITIAL_ATTITUDE_VARIANCE;
+        c[0] = c[4] = c[8] = INITIAL_BIAS_VARIANCE;
+
+        gyroVarianceX = gyroVarianceY = gyroVarianceZ = MPU6050.GYRO_VARIANCE_VAL;
+        accelVarianceX = accelVarianceY = accelVarianceZ = MPU6050.ACCEL_VARIANCE_VAL;
+    }
+
+    // replaces the datasheet variances the filter starts with
+    @Override
+    public void setSensorVariances(double gx, double gy, double gz, double ax, double ay, double az) {
+        gyroVarianceX = gx; gyroVarianceY = gy; gyroVarianceZ = gz;
+        accelVarianceX = ax; accelVarianceY = ay; accelVarianceZ = az;
+    }
+
+    @Override
+    public void update(double dt, double gx, double gy, double gz, double ax, double ay, double az) {
+        predict(dt, gx - gyroBias.x, gy - gyroBias.y, gz - gyroBias.z);
+
+        double accelNorm2 = ax * ax + ay * ay + az * az;
+        if (accelNorm2 > 0) {
+            double invNorm = MATH.invSqrt(accelNorm2);
+            correct(ax * invNorm, ay * invNorm, az * invNorm);
+        }
+
+        // ACCELERATION IN GLOBAL-FRAME
+        rotation.set(orientation);
+        globalAccel.set(ax, ay, az).rotate(rotation).add(0, 0, -G);
+    }
+
+    private void predict(double dt, double wx, double wy, double wz) {
+        orientation.mul(step.setRotationVector(wx * dt, wy * dt, wz * dt, MATH)).normalize();
+
+        // phi = I - [w x] dt
+        phi[0] = 1;       phi[1] = wz * dt;  phi[2] = -wy * dt;
+        phi[3] = -wz * dt; phi[4] = 1;       phi[5] = wx * dt;
+        phi[6] = wy * dt;  phi[7] = -wx * dt; phi[8] = 1;
+
+        // work = phi A phi' - dt (phi B + B' phi') + dt^2 C
+        mul(phi, a, work);
+        mulTransposed(work, phi, a);
+        mul(phi, b, work);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                a[i * 3 + j] += -dt * (work[i * 3 + j] + work[j * 3 + i]) + dt * dt * c[i * 3 + j];
+            }
+        }
+        a[0] += gyroVarianceX * dt * dt;
+        a[4] += gyroVarianceY * dt * dt;
+        a[8] += gyroVarianceZ * dt * dt;
+
+        // B = phi B - dt C
+        for (int i = 0; i < 9; i++) {
+            b[i] = work[i] - dt * c[i];
+        }
+
+        c[0] += BIAS_DRIFT_VARIANCE * dt;
+        c[4] += BIAS_DRIFT_VARIANCE * dt;
+        c[8] += BIAS_DRIFT_VARIANCE * dt;
+    }
+
+    // measured gravity direction n against the predicted v = R' z, one axis at a time
+    private void correct(double nx, double ny, double nz) {
+        double q0 = orientation.x0, q1 = orientation.x1, q2 = orientation.x2, q3 = orientation.x3;
+        double vx = 2 * (q1 * q3 - q0 * q2);
+        double vy = 2 * (q0 * q1 + q2 * q3);
+        double vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+
+        for (int i = 0; i < 6; i++) error[i] = 0;
+
+        // rows of H = [[v x], 0], the bias block of each row is zero
+        scalarUpdate(nx - vx, 0, -vz, vy, accelVarianceX / (G * G));
+        scalarUpdate(ny - vy, vz, 0, -vx, accelVarianceY / (G * G));
+        scalarUpdate(nz - vz, -vy, vx, 0, accelVarianceZ / (G * G));
+
+        // fold the error back into the quaternion and bias, then the error resets to 0
+        orientation.mul(step.set(1, error[0] / 2, error[1] / 2, error[2] / 2)).normalize();
+        gyroBias.add(error[3], error[4], error[5]);
+    }
+
+    private void scalarUpdate(double residual, double h0, double h1, double h2, double variance) {
+        // pht = P h', only the attitude columns of P matter since h has no bias part
+        for (int i = 0; i < 3; i++) {
+            pht[i] = a[i * 3] * h0 + a[i * 3 + 1] * h1 + a[i * 3 + 2] * h2;
+            pht[i + 3] = b[i] * h0 + b[3 + i] * h1 + b[6 + i] * h2; // rows of B'
+        }
+
+        double s = h0 * pht[0] + h1 * pht[1] + h2 * pht[2] + variance;
+        double innovation = residual - (h0 * error[0] + h1 * error[1] + h2 * error[2]);
+
+        for (int i = 0; i < 6; i++) {
+            error[i] += pht[i] / s * innovation;
+        }
+
+        // P = P - pht pht' / s, blockwise
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                a[i * 3 + j] -= pht[i] * pht[j] / s;
+                b[i * 3 + j] -= pht[i] * pht[j + 3] / s;
+                c[i * 3 + j] -= pht[i + 3] * pht[j + 3] / s;
+            }
+        }
+    }
+
+    // out = x y
+    private static void mul(double[] x, double[] y, double[] out) {
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                out[i * 3 + j] = x[i * 3] * y[j] + x[i * 3 + 1] * y[3 + j] + x[i * 3 + 2] * y[6 + j];
+            }
+        }
+    }
+
+    // out = x y'
+    private static void mulTransposed(double[] x, double[] y, double[] out) {
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                out[i * 3 + j] = x[i * 3] * y[j * 3] + x[i * 3 + 1] * y[j * 3 + 1] + x[i * 3 + 2] * y[j * 3 + 2];
+            }
+        }
+    }
+
+    @Override
+    public boolean estimatesGyroBias() {
+        return true;
+    }
+
+    // current gyro bias estimate in rad/s, already subtracted from the rates passed to update
+    public MutableVector3 gyroBias() {
+        return gyroBias;
+    }
+
+    // true once the bias standard deviation on every axis is below maxStdDev (rad/s)
+    public boolean biasSettled(double maxStdDev) {
+        double max = maxStdDev * maxStdDev;
+        return c[0] < max && c[4] < max && c[8] < max;
+    }
+
+    // hands the bias over to whoever corrects the raw gyro (e.g. MPU6050.correctGyroBias) and stops applying it here
+    public Vector3 takeGyroBias() {
+        var bias = gyroBias.toVector3();
+        gyroBias.set(0, 0, 0);
+        return bias;
+    }
+
+    @Override
+    public MutableQuaternion orientation() {
+        return orientation;
+    }
+
+    @Override
+    public MutableVector3 globalAccel() {
+        return globalAccel;
+    }
+
+    @Override
+    public RotationMatrix rotation() {
+        return rotation;
+    }
+}
@@ -7,34 +7,69 @@ import static drone.DroneConstants.*;
 import static java.lang.Math.*;
 import static sensors.MPU6050.G;
 
-public class Orientation {
+public class Orientation implements AttitudeEstimator {
 
-    public volatile Quaternion orientation = Quaternion.IDENTITY;
-    public volatile Vector3 globalAccel = Vector3.ZERO;
+    // updated in place every iteration, copy with toQuaternion()/toVector3() to keep a snapshot
+    public final MutableQuaternion orientation = new MutableQuaternion();
+    public final MutableVector3 globalAccel = new MutableVector3();
+    public final RotationMatrix rotation = new RotationMatrix();
+
+    // scratch space so update doesn't allocate
+    private final MutableQuaternion gyroQuat = new MutableQuaternion();
+    private final MutableQuaternion yawQuat = new MutableQuaternion();
+    private final MutableQuaternion accelQuat = new MutableQuaternion();
 
     public void update(double dt, Vector3 gyroRates, Vector3 bodyAccel, double totalThrust) {
-        var gyroQuat = orientation.mul(fromGyroRates(dt, Vector3.of(gyroRates.x(), gyroRates.y(), gyroRates.z())));
-        var yawQuat = Quaternion.of(gyroQuat.x0(), 0, 0, gyroQuat.x3()).normalized();
+        update(dt, gyroRates.x(), gyroRates.y(), gyroRates.z(), bodyAccel.x(), bodyAccel.y(), bodyAccel.z(), totalThrust);
+    }
+
+    @Override
+    public void update(double dt, double gx, double gy, double gz, double ax, double ay, double az) {
+        update(dt, gx, gy, gz, ax, ay, az, 0);
+    }
 
-        var bodyAccelNorm = bodyAccel.normalized();
-        double accPitch = -asin(bodyAccelNorm.x());
-        double accRoll = asin(bodyAccelNorm.y());
+    public void update(double dt, double gx, double gy, double gz, double ax, double ay, double az, double totalThrust) {
+        fromGyroRates(dt, gx, gy, gz, gyroQuat).preMul(orientation);
+        yawQuat.set(gyroQuat.x0, 0, 0, gyroQuat.x3).normalize();
 
-        var accelQuat = fromGyroRates(1, Vector3.of(accRoll, accPitch, 0));
-        var accelQuatRot = yawQuat.mul(accelQuat);
+        double accelNorm = sqrt(ax * ax + ay * ay + az * az);
+        if (accelNorm == 0) accelNorm = 1; // zero vector stays zero, like Vector3.normalized
+        double accPitch = -MATH.asin(ax / accelNorm);
+        double accRoll = MATH.asin(ay / accelNorm);
+
+        fromGyroRates(1, accRoll, accPitch, 0, accelQuat).preMul(yawQuat);
 
         double alpha = 0.3;
-        orientation = accelQuatRot.fractional(alpha).mul(gyroQuat.fractional(1 - alpha));
+        accelQuat.fractional(alpha);
+        gyroQuat.fractional(1 - alpha);
+        orientation.mul(accelQuat, gyroQuat);
 
         // ACCELERATION IN GLOBAL-FRAME
-        globalAccel = bodyAccel.rotatedBy(orientation).add(Vector3.of(0, 0, -G));
+        rotation.set(orientation);
+        globalAccel.set(ax, ay, az).rotate(rotation).add(0, 0, -G);
+    }
+
+    @Override
+    public MutableQuaternion orientation() {
+        return orientation;
     }
 
+    @Override
+    public MutableVector3 globalAccel() {
+        return globalAccel;
+    }
+
+    @Override
+    public RotationMatrix rotation() {
+        return rotation;
+    }
+
+    @Override
     public void initFromAccel(Vector3 bodyAccel) {
         // when quad is sitting still, initialize starting orientation from gravity vector
         double accPitch = -asin(bodyAccel.normalized().x());
         double accRoll = asin(bodyAccel.normalized().y());
-        orientation = fromGyroRates(1, Vector3.of(accRoll, accPitch, 0));
+        fromGyroRates(1, accRoll, accPitch, 0, orientation);
     }
 
     public Vector3 compensateAccel(Vector3 bodyAccel, double totalThrust) {
@@ -59,10 +94,11 @@ public class Orientation {
     }
 
     public Quaternion fromGyroRates(double dt, Vector3 gyroRates) {
-        double angle = dt * gyroRates.norm();
-        Vector3 n = gyroRates.normalized();
-        double sa = sin(angle / 2);
-        return new Quaternion(cos(angle / 2), n.x() * sa, n.y() * sa, n.z() * sa);
+        return fromGyroRates(dt, gyroRates.x(), gyroRates.y(), gyroRates.z(), new MutableQuaternion()).toQuaternion();
+    }
+
+    public MutableQuaternion fromGyroRates(double dt, double gx, double gy, double gz, MutableQuaternion out) {
+        return out.setRotationVector(gx * dt, gy * dt, gz * dt, MATH);
     }
 
 }
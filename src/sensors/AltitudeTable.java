@@ -0,0 +1,70 @@
+package sensors;
+
+import static java.lang.Math.pow;
+
+/*
+Barometric altitude above a reference pressure, the standard atmosphere's hypsometric relation with a
+constant lapse rate:
+
+    h = T0 / L * (1 - (p / p0)^(R L / g M))
+
+Precomputed on a uniform pressure grid and linearly interpolated, which stays within a millimetre of the
+formula over the table's range. Pressures outside it, far below flying altitude, go through pow.
+ */
+final class AltitudeTable {
+	private static final double SCALE = 44330.77; // T0 / L, m
+	private static final double EXPONENT = 0.190263; // R L / (g M)
+
+	private static final double MIN_RATIO = 0.3, MAX_RATIO = 1.1; // about -800m to 9000m
+	private static final double STEP = 20; // Pa
+
+	private final double referencePressure;
+	private final double minPressure, maxPressure, inverseStep;
+	private final double[] altitude;
+
+	AltitudeTable(double referencePressure) {
+		if (!(referencePressure > 0))
+			throw new IllegalArgumentException("reference pressure " + referencePressure + " Pa");
+		this.referencePressure = referencePressure;
+		this.inverseStep = 1 / STEP;
+
+		// the reference pressure sits on a grid point so it maps to exactly 0m
+		int below = (int) Math.ceil((1 - MIN_RATIO) * referencePressure / STEP);
+		int above = (int) Math.ceil((MAX_RATIO - 1) * referencePressure / STEP);
+		int entries = below + above + 1;
+		this.minPressure = referencePressure - below * STEP;
+		this.maxPressure = minPressure + (entries - 1) * STEP;
+		this.altitude = new double[entries];
+		for (int i = 0; i < entries; i++) {
+			altitude[i] = exactAltitude(minPressure + i * STEP);
+		}
+	}
+
+	double referencePressure() {
+		return referencePressure;
+	}
+
+	// absolute pressure in Pa to metres above the reference
+	double altitude(double pressure) {
+		if (!(pressure >= minPressure && pressure < maxPressure))
+			return exactAltitude(pressure);
+
+		double index = (pressure - minPressure) * inverseStep;
+		int i = (int) index;
+		double a = altitude[i];
+		return a + (index - i) * (altitude[i + 1] - a);
+	}
+
+	// dh/dp in m/Pa, negative, to carry pressure noise over to altitude
+	double slope(double pressure) {
+		if (!(pressure >= minPressure && pressure < maxPressure))
+			return -SCALE * EXPONENT / referencePressure * pow(pressure / referencePressure, EXPONENT - 1);
+
+		int i = (int) ((pressure - minPressure) * inverseStep);
+		return (altitude[i + 1] - altitude[i]) * inverseStep;
+	}
+
+	double exactAltitude(double pressure) {
+		return SCALE * (1 - pow(pressure / referencePressure, EXPONENT));
+	}
+}
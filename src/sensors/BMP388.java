@@ -1,8 +1,9 @@
 package sensors;
 
-import com.diozero.api.I2CDevice;
+import com.diozero.api.RuntimeIOException;
 
 import java.time.Instant;
+import java.util.concurrent.locks.LockSupport;
 
 import static java.lang.Math.exp;
 import static java.lang.Math.pow;
@@ -13,52 +14,172 @@ import static sensors.BMP388.PressureOversample.*;
 import static sensors.BMP388.Register.*;
 
 public class BMP388 implements AutoCloseable {
-	private static final int SLAVE_ADDRESS = 0x77;
-
-	private final I2CDevice delegate;
-	private final CalibrationData calibration;
-
-	private double zeroAltitude;
+	public static final int SLAVE_ADDRESS = 0x77;
+
+	// fifo frames, a header byte and then the data in register order, temperature before pressure
+	private static final int FIFO_SIZE = 512;
+	private static final int FRAME_PRESSURE_TEMPERATURE = 0x94, FRAME_TEMPERATURE = 0x90, FRAME_PRESSURE = 0x84;
+	private static final int FRAME_SENSOR_TIME = 0xa0, FRAME_EMPTY = 0x80;
+	private static final int FRAME_CONFIG_ERROR = 0x44, FRAME_CONFIG_CHANGE = 0x48;
+	private static final int SENSOR_TIME_FRAME_BYTES = 4;
+	/**
+	 * Most pressure and temperature frames the FIFO holds, a {@link BaroBatch} this big never drops any.
+	 */
+	public static final int FIFO_FRAMES = FIFO_SIZE / 7;
+
+	private final I2CRegisterDevice delegate;
+	private final Compensation compensation;
+	private final AltitudeTable altitudeTable; // referenced to the pressure at startup
 
 	private PressureOversample pressureOversample;
 	private IIR iir;
 
-	private BMP388(I2CDevice delegate) throws InterruptedException {
+	// normal mode, the sampler thread owns the bus and hands readings over through the volatile
+	private OutputDataRate outputDataRate;
+	private Thread sampler;
+	private volatile Reading latest;
+	private volatile long samplerErrors; // only the sampler writes it
+	private volatile RuntimeException lastSamplerError;
+
+	private FifoConfig fifoConfig = FifoConfig.disabled();
+	private final byte[] fifoLength = new byte[2];
+	private final byte[][] fifoBuffers = new byte[FIFO_SIZE + SENSOR_TIME_FRAME_BYTES + 1][]; // by byte count
+	private double fifoTemperature = Double.NaN; // from the last frame with a temperature, for pressure only frames
+
+	private BMP388(I2CRegisterDevice delegate) throws InterruptedException {
 		this.delegate = delegate;
-		this.calibration = new CalibrationData(readData(0x31, 21));
+		this.compensation = new Compensation(new CalibrationData(readData(0x31, 21)));
 
 		this.delegate.writeByteData(CMD.address, (byte)0xb6);
 //		this.delegate.writeByteData(OSR.address, 0b110011);
 		iir = COEF_0;
 		configureOversampling(ULTRA_LOW);
-//		setFifoConfig(FifoConfig.disabled());
+		setFifoConfig(FifoConfig.disabled());
 
-		this.zeroAltitude = read().pressure;
+		startForcedConversion();
+		var data = delegate.readI2CBlockDataByteArray(PRESSURE_DATA_0.address, 6);
+		this.altitudeTable = new AltitudeTable(
+				compensation.pressure(unsigned24(data, 0), compensation.temperature(unsigned24(data, 3))));
 	}
 
 	public static BMP388 withDefaults(int controller) throws InterruptedException {
-		var device = new BMP388(new I2CDevice(controller, SLAVE_ADDRESS));
+		var device = new BMP388(I2CRegisterDevice.open(controller, SLAVE_ADDRESS));
 
 		return device;
 	}
 
+	// on any register device, e.g. one from SimulatedBus.bmp388
+	public static BMP388 withDefaults(I2CRegisterDevice device) throws InterruptedException {
+		return new BMP388(device);
+	}
+
+	// forced mode, one conversion per call and spins until it's done
 	public Reading read() throws InterruptedException {
+		if (outputDataRate != null)
+			throw new IllegalStateException("in normal mode, use tryLatest()");
+
+		startForcedConversion();
+		return readConversion();
+	}
+
+	private void startForcedConversion() throws InterruptedException {
 		this.delegate.writeByteData(PWR_CTRL.address, (byte)0b010011);
 
 		while (!dataReady()) {
 			if (Thread.interrupted())
 				throw new InterruptedException();
 		}
+	}
 
+	/*
+	Normal mode, the sensor converts on its own every odr period. Check the datasheet's measurement time
+	table, oversampling has to fit in the period or the sensor flags a config error.
+	 */
+	public void configureNormalMode(OutputDataRate odr) {
+		delegate.writeByteData(ODR.address, (byte) odr.ordinal());
+		delegate.writeByteData(PWR_CTRL.address, (byte) 0b110011); // normal mode, pressure and temperature on
+
+		if ((delegate.readByteData(ERR_REG.address) & 0b100) != 0)
+			throw new RuntimeIOException("BMP388 rejected " + odr + " with " + pressureOversample + " oversampling");
+		outputDataRate = odr;
+	}
+
+	/*
+	Starts a daemon thread that picks up every conversion in normal mode and publishes it for tryLatest().
+	From here on the sampler is the only one talking to the device until close().
+	 */
+	public synchronized void startSampler() {
+		if (outputDataRate == null)
+			throw new IllegalStateException("configure normal mode first");
+		if (sampler != null)
+			return;
+
+		long period = outputDataRate.periodNanos();
+		sampler = Thread.ofPlatform().daemon().name("bmp388-sampler").start(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				// sleep most of a period, then poll the status in small steps until the conversion lands
+				LockSupport.parkNanos(period - period / 8);
+				try {
+					while (!dataReady() && !Thread.currentThread().isInterrupted()) {
+						LockSupport.parkNanos(period / 16);
+					}
+					if (Thread.currentThread().isInterrupted())
+						break;
+
+					latest = readConversion();
+				} catch (RuntimeException e) {
+					// a bus hiccup in the poll or the read costs one sample, tryLatest keeps returning the
+					// previous one, which is why it's counted. Not only RuntimeIOException, anything else
+					// the bus or the parsing throws would end the thread and leave tryLatest stale for good
+					samplerErrors++;
+					lastSamplerError = e;
+				}
+			}
+		});
+	}
+
+	// newest normal mode reading or null before the first one, never blocks. The same instance comes back
+	// until a newer conversion is published, so compare by identity to spot fresh data
+	public Reading tryLatest() {
+		return latest;
+	}
+
+	// errors the sampler skipped a sample for, a growing count with a stale tryLatest means the bus is gone
+	public long samplerErrors() {
+		return samplerErrors;
+	}
+
+	// the most recent of those, null without any
+	public RuntimeException lastSamplerError() {
+		return lastSamplerError;
+	}
+
+	private Reading readConversion() {
 		var data = delegate.readI2CBlockDataByteArray(PRESSURE_DATA_0.address, 6);
 
-		var rawPressure = ((data[2] & 0xff) << 16) | ((data[1] & 0xff) << 8) | (data[0] & 0xff);
-		var rawTemperature = ((data[5] & 0xff) << 16) | ((data[4] & 0xff) << 8) | (data[3] & 0xff);
+		var temperature = compensation.temperature(unsigned24(data, 3));
+		var pressure = compensation.pressure(unsigned24(data, 0), temperature);
+		var pressureVariance = pressureVariance();
 
-		var temperature = compensatedTemperature(rawTemperature);
-		var pressure = compensatedPressure(rawPressure, temperature) - zeroAltitude;
+		return new Reading(now(), temperature, pressure - altitudeTable.referencePressure(), temperatureVariance(),
+				pressureVariance, altitudeTable.altitude(pressure), altitudeVariance(pressure, pressureVariance));
+	}
+
+	/**
+	 * Metres above the startup position for a pressure relative to the startup pressure, like
+	 * {@link Reading#pressure()} and {@link BaroBatch#pressure}.
+	 */
+	public double altitude(double pressure) {
+		return altitudeTable.altitude(pressure + altitudeTable.referencePressure());
+	}
 
-		return new Reading(now(), temperature, pressure, temperatureVariance(), pressureVariance());
+	/**
+	 * Altitude variance for a pressure relative to the startup pressure and its variance, the barometric
+	 * formula is close enough to linear over the noise.
+	 */
+	public double altitudeVariance(double pressure, double pressureVariance) {
+		double slope = altitudeTable.slope(pressure + altitudeTable.referencePressure());
+		return slope * slope * pressureVariance;
 	}
 
 	public double temperatureVariance() {
@@ -79,11 +200,15 @@ public class BMP388 implements AutoCloseable {
 		delegate.writeByteData(CONFIG.address, (byte) iir.ordinal());
 	}
 
+	/*
+	The FIFO only fills in normal mode, see configureNormalMode. Flushes whatever was queued under the old
+	config.
+	 */
 	public void setFifoConfig(FifoConfig config) {
 		int config0 = 0;
 		int config1 = 0;
 
-		config0 |= config.fifoLength != 0 ? (1 << 0) : 0;
+		config0 |= config.enabled() ? (1 << 0) : 0;
 		config0 |= config.stopOnFull ? (1 << 1) : 0;
 		config0 |= config.time ? (1 << 2) : 0;
 		config0 |= config.pressure ? (1 << 3) : 0;
@@ -95,39 +220,110 @@ public class BMP388 implements AutoCloseable {
 		delegate.writeByteData(FIFO_CONFIG_0.address, (byte) config0);
 		delegate.writeByteData(FIFO_CONFIG_1.address, (byte) config1);
 
-		delegate.writeByteData(FIFO_LENGTH_0.address, (byte) (config.fifoLength & 0xFF));
-		delegate.writeByteData(FIFO_LENGTH_1.address, (byte) ((config.fifoLength >> 8) & 0xFF));
-	}
-
-	private double compensatedPressure(int uncomp_press, double temperature) {
-		/* Variable to store the compensated pressure */
-		double comp_press; /* Temporary variables used for compensation */
-		double partial_data1;
-		double partial_data2;
-		double partial_data3;
-		double partial_data4;
-		double partial_out1;
-		double partial_out2; /* Calibration data */
-		partial_data1 = calibration.par_p6() * temperature;
-		partial_data2 = calibration.par_p7() * (temperature * temperature);
-		partial_data3 = calibration.par_p8() * (temperature * temperature * temperature);
-		partial_out1 = calibration.par_p5() + partial_data1 + partial_data2 + partial_data3;
-		partial_data1 = calibration.par_p2() * temperature;
-		partial_data2 = calibration.par_p3() * (temperature * temperature);
-		partial_data3 = calibration.par_p4() * (temperature * temperature * temperature);
-		partial_out2 = (double) uncomp_press * (calibration.par_p1() + partial_data1 + partial_data2 + partial_data3);
-		partial_data1 = (double) uncomp_press * (double) uncomp_press;
-		partial_data2 = calibration.par_p9() + calibration.par_p10() * temperature;
-		partial_data3 = partial_data1 * partial_data2;
-		partial_data4 = partial_data3 + ((double) uncomp_press * (double) uncomp_press * (double) uncomp_press) * calibration.par_p11();
-		comp_press = partial_out1 + partial_out2 + partial_data4;
-		return comp_press;
-	}
-
-	private double compensatedTemperature(int uncomp_temp) {
-		double partial_data1 = (double) (uncomp_temp - calibration.par_t1());
-		double partial_data2 = (double) (partial_data1 * calibration.par_t2()); /* Update the compensated temperature in calib structure since this is * needed for pressure calculation */
-		return partial_data2 + (partial_data1 * partial_data1) * calibration.par_t3(); /* Returns compensated temperature */
+		// FIFO_LENGTH is the read only fill level, the configurable threshold is the watermark
+		delegate.writeByteData(FIFO_WTM_0.address, (byte) (config.watermark & 0xFF));
+		delegate.writeByteData(FIFO_WTM_1.address, (byte) ((config.watermark >> 8) & 0x01));
+
+		delegate.writeByteData(CMD.address, (byte) 0xb0); // fifo_flush
+		fifoConfig = config;
+		fifoTemperature = Double.NaN;
+	}
+
+	/*
+	Drains the FIFO into batch with the length read plus one burst read, so high oversampling and odr still
+	cost two transactions per call however often the sensor converted. Frames that don't fit in batch are
+	dropped and flagged, size it with FIFO_FRAMES. Timestamps are spaced by the odr period, the newest one
+	at the time of the call.
+	 */
+	public int readFifo(BaroBatch batch) {
+		if (!fifoConfig.enabled())
+			throw new IllegalStateException("FIFO is not enabled");
+		if (outputDataRate == null)
+			throw new IllegalStateException("the FIFO only fills in normal mode");
+		if (sampler != null)
+			throw new IllegalStateException("the sampler thread owns the bus");
+
+		long now = System.nanoTime();
+		long period = outputDataRate.periodNanos() << fifoConfig.subsampling;
+		batch.dt = period / 1e9;
+		batch.count = 0;
+		batch.sensorTime = -1;
+		batch.overflowed = false;
+		batch.configError = false;
+
+		delegate.readI2CBlockData(FIFO_LENGTH_0.address, fifoLength);
+		int bytes = ((fifoLength[1] & 0x01) << 8) | (fifoLength[0] & 0xff);
+		if (bytes == 0)
+			return 0;
+		// no room for another frame, with stopOnFull off the chip has been dropping the oldest ones
+		batch.overflowed = bytes > FIFO_SIZE - 7;
+
+		// the sensor time frame only shows up after the last queued frame has been read
+		int length = bytes + (fifoConfig.time ? SENSOR_TIME_FRAME_BYTES : 0);
+		var buffer = fifoBuffers[length];
+		if (buffer == null)
+			buffer = fifoBuffers[length] = new byte[length];
+
+		// FIFO_DATA doesn't auto increment, a plain read after setting the pointer streams the queue.
+		// smbus block reads would cap this at 32 bytes
+		delegate.readStream(FIFO_DATA.address, buffer);
+
+		int samples = parseFifo(buffer, batch);
+		for (int i = 0; i < samples; i++) {
+			batch.timestamp[i] = now - (samples - 1 - i) * period;
+		}
+		return samples;
+	}
+
+	private int parseFifo(byte[] buffer, BaroBatch batch) {
+		int samples = 0;
+		int i = 0;
+		while (i < buffer.length) {
+			int header = buffer[i] & 0xff;
+			int frameBytes = switch (header) {
+				case FRAME_PRESSURE_TEMPERATURE -> 7;
+				case FRAME_TEMPERATURE, FRAME_PRESSURE, FRAME_SENSOR_TIME -> 4;
+				case FRAME_CONFIG_ERROR, FRAME_CONFIG_CHANGE -> 2;
+				default -> 0; // empty frame or garbage, nothing more to read
+			};
+			if (frameBytes == 0 || i + frameBytes > buffer.length)
+				break;
+
+			int data = i + 1;
+			double pressure = Double.NaN;
+			switch (header) {
+				case FRAME_PRESSURE_TEMPERATURE -> {
+					fifoTemperature = compensation.temperature(unsigned24(buffer, data));
+					pressure = compensation.pressure(unsigned24(buffer, data + 3), fifoTemperature);
+				}
+				case FRAME_TEMPERATURE -> fifoTemperature = compensation.temperature(unsigned24(buffer, data));
+				case FRAME_PRESSURE -> {
+					// compensation needs a temperature, drop pressure until one has come through
+					if (fifoTemperature == fifoTemperature)
+						pressure = compensation.pressure(unsigned24(buffer, data), fifoTemperature);
+				}
+				case FRAME_SENSOR_TIME -> batch.sensorTime = unsigned24(buffer, data);
+				case FRAME_CONFIG_ERROR -> batch.configError = true;
+				default -> { } // config change, the samples after it are already in the new config
+			}
+
+			if (pressure == pressure) {
+				if (samples < batch.capacity()) {
+					batch.pressure[samples] = pressure - altitudeTable.referencePressure();
+					batch.temperature[samples] = fifoTemperature;
+					samples++;
+				} else {
+					batch.overflowed = true;
+				}
+			}
+			i += frameBytes;
+		}
+		batch.count = samples;
+		return samples;
+	}
+
+	private static int unsigned24(byte[] buffer, int offset) {
+		return ((buffer[offset + 2] & 0xff) << 16) | ((buffer[offset + 1] & 0xff) << 8) | (buffer[offset] & 0xff);
 	}
 
 	private int rawPressure() {
@@ -160,21 +356,44 @@ public class BMP388 implements AutoCloseable {
 
 	@Override
 	public void close() {
+		Thread thread;
+		synchronized (this) {
+			thread = sampler;
+			sampler = null;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 		delegate.close();
 	}
 
-	public record FifoConfig(int fifoLength, boolean stopOnFull, boolean time, boolean pressure, boolean temperature,
+	// watermark is the fill level in bytes for the watermark interrupt, subsampling keeps every 2^n-th sample
+	public record FifoConfig(int watermark, boolean stopOnFull, boolean time, boolean pressure, boolean temperature,
 							 boolean filtered, int subsampling) {
 		public static FifoConfig disabled() {
 			return new FifoConfig(0, false, false, false, false, false, 0);
 		}
 
+		// every conversion with both values, iir filtered like the data registers, plus the sensor time frame
+		public static FifoConfig pressureAndTemperature() {
+			return new FifoConfig(0, false, true, true, true, true, 0);
+		}
+
+		public boolean enabled() {
+			return time || pressure || temperature;
+		}
+
 		public FifoConfig {
 			if (subsampling != 0 && subsampling != 1 && subsampling != 2 && subsampling != 4)
 				throw new IllegalArgumentException("Subsampling must be 0, 1, 2, or 4");
 
-			if (fifoLength < 0 || fifoLength > (1 << 15 - 1))
-				throw new IllegalArgumentException("Fifo length must be between 0 and 32767");
+			if (watermark < 0 || watermark >= FIFO_SIZE)
+				throw new IllegalArgumentException("Watermark must be between 0 and 511");
 		}
 	}
 
@@ -200,6 +419,22 @@ public class BMP388 implements AutoCloseable {
 		}
 	}
 
+	// ODR register values, each halves the rate of the one before
+	public enum OutputDataRate {
+		HZ_200,
+		HZ_100,
+		HZ_50,
+		HZ_25,
+		HZ_12_5,
+		HZ_6_25,
+		HZ_3_1,
+		HZ_1_5;
+
+		public long periodNanos() {
+			return 5_000_000L << ordinal();
+		}
+	}
+
 	public enum IIR {
 		COEF_0,
 		COEF_1,
@@ -269,6 +504,51 @@ public class BMP388 implements AutoCloseable {
 		}
 	}
 
+	/*
+	The CalibrationData coefficients parsed and scaled once, compensation runs on plain fields. Same math as
+	the floating point compensation in Bosch's BMP3 API, with the polynomials in Horner form:
+
+	    T = (raw - t1) t2 + (raw - t1)^2 t3
+	    P = p5 + p6 T + p7 T^2 + p8 T^3
+	      + raw (p1 + p2 T + p3 T^2 + p4 T^3)
+	      + raw^2 (p9 + p10 T) + raw^3 p11
+	 */
+	public static final class Compensation {
+		private final double t1, t2, t3;
+		private final double p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11;
+
+		public Compensation(CalibrationData calibration) {
+			t1 = calibration.par_t1();
+			t2 = calibration.par_t2();
+			t3 = calibration.par_t3();
+			p1 = calibration.par_p1();
+			p2 = calibration.par_p2();
+			p3 = calibration.par_p3();
+			p4 = calibration.par_p4();
+			p5 = calibration.par_p5();
+			p6 = calibration.par_p6();
+			p7 = calibration.par_p7();
+			p8 = calibration.par_p8();
+			p9 = calibration.par_p9();
+			p10 = calibration.par_p10();
+			p11 = calibration.par_p11();
+		}
+
+		// C
+		public double temperature(int rawTemperature) {
+			double d = rawTemperature - t1;
+			return d * (t2 + d * t3);
+		}
+
+		// Pa, temperature from temperature(int)
+		public double pressure(int rawPressure, double temperature) {
+			double t = temperature, p = rawPressure;
+			double offset = p5 + t * (p6 + t * (p7 + t * p8));
+			double sensitivity = p1 + t * (p2 + t * (p3 + t * p4));
+			return offset + p * (sensitivity + p * (p9 + p10 * t + p * p11));
+		}
+	}
+
 	enum Register {
 		CHIP_ID((byte) 0x00),
 		ERR_REG((byte) 0x02),
@@ -313,15 +593,9 @@ public class BMP388 implements AutoCloseable {
 		}
 	}
 
-	public record Reading(Instant time, double temperature, double pressure, double temperatureVariance, double pressureVariance) {
-		public double altitude() {
-				return (pressure) * 0.083226546738322;
-		}
-
-		public double altitudeVariance() {
-			return pressureVariance / pow(0.12677457000000025, 2);
-		}
-
+	// pressure is relative to the startup pressure and altitude is above the startup position
+	public record Reading(Instant time, double temperature, double pressure, double temperatureVariance, double pressureVariance,
+						  double altitude, double altitudeVariance) {
 		@Override
 		public String toString() {
 			return "[Temperature = %3.3f C, pressure = %3.3f Pa, altitude = %3.3f m]".formatted(temperature, pressure, altitude());
@@ -0,0 +1,64 @@
+package sensors;
+
+/**
+ * Reusable batch of BMP388 FIFO samples as primitive arrays, compensated like {@link BMP388.Reading}.
+ * Filled by {@link BMP388#readFifo(BaroBatch)}, only the first {@link #count()} entries are valid.
+ */
+public final class BaroBatch {
+	public final double[] pressure; // Pa, relative to the startup pressure like Reading
+	public final double[] temperature; // C
+	/**
+	 * System.nanoTime of each sample, derived from the output data rate with the newest sample at read time.
+	 */
+	public final long[] timestamp;
+
+	int count;
+	double dt;
+	long sensorTime = -1;
+	boolean overflowed;
+	boolean configError;
+
+	public BaroBatch(int capacity) {
+		pressure = new double[capacity];
+		temperature = new double[capacity];
+		timestamp = new long[capacity];
+	}
+
+	public int capacity() {
+		return pressure.length;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Seconds between consecutive samples, the output data rate period times the FIFO subsampling.
+	 */
+	public double dt() {
+		return dt;
+	}
+
+	/**
+	 * Raw 24 bit sensor time from the frame the chip appends once the FIFO is drained, -1 when time frames are
+	 * off.
+	 */
+	public long sensorTime() {
+		return sensorTime;
+	}
+
+	/**
+	 * True when the FIFO was full or there were more samples than capacity, samples were lost.
+	 */
+	public boolean overflowed() {
+		return overflowed;
+	}
+
+	/**
+	 * True when the FIFO carried a configuration error frame since the last read, e.g. oversampling that
+	 * doesn't fit the output data rate.
+	 */
+	public boolean configError() {
+		return configError;
+	}
+}
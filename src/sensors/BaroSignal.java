@@ -0,0 +1,27 @@
+package sensors;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * What a {@link SimulatedBus#bmp388(BaroSignal) simulated BMP388} measures, absolute pressure in Pa as a
+ * function of seconds since the device was created.
+ */
+@FunctionalInterface
+public interface BaroSignal {
+	double pressure(double time);
+
+	default double temperature(double time) {
+		return 25;
+	}
+
+	static BaroSignal constant(double pressure) {
+		return time -> pressure;
+	}
+
+	/**
+	 * Flying a height profile in metres above sea level through the standard atmosphere.
+	 */
+	static BaroSignal altitude(DoubleUnaryOperator altitude) {
+		return time -> 101325 * Math.pow(1 - altitude.applyAsDouble(time) / 44330.77, 1 / 0.190263);
+	}
+}
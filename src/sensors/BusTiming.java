@@ -0,0 +1,39 @@
+package sensors;
+
+/**
+ * Latency model for a {@link SimulatedBus}: every transaction pays a fixed driver overhead plus its bits on
+ * the wire at the SCL clock. Bits count 9 per byte (8 data and the ack), 1 per start, repeated start and
+ * stop, clock stretching is ignored.
+ *
+ * @param clockHz        SCL frequency
+ * @param overheadNanos  per transaction cost outside the wire, the i2c-dev ioctl and scheduling on the Pi
+ */
+public record BusTiming(double clockHz, long overheadNanos) {
+	/**
+	 * Rough cost of one ioctl through the Linux i2c-dev driver.
+	 */
+	public static final long LINUX_OVERHEAD_NANOS = 20_000;
+
+	public static final BusTiming STANDARD_MODE = new BusTiming(100_000, LINUX_OVERHEAD_NANOS);
+	public static final BusTiming FAST_MODE = new BusTiming(400_000, LINUX_OVERHEAD_NANOS);
+	/**
+	 * No latency at all, for profiling the drivers and register models themselves.
+	 */
+	public static final BusTiming INSTANT = new BusTiming(Double.POSITIVE_INFINITY, 0);
+
+	public BusTiming {
+		if (!(clockHz > 0) || overheadNanos < 0)
+			throw new IllegalArgumentException("clock must be positive and overhead non negative");
+	}
+
+	/**
+	 * One transaction: start, address, written bytes, then if anything is read a repeated start and the
+	 * address again unless nothing was written, the read bytes and stop.
+	 */
+	public long transactionNanos(int written, int read) {
+		long bits = 2 + 9L * (1 + written);
+		if (read > 0)
+			bits += written > 0 ? 1 + 9L * (1 + read) : 9L * read;
+		return overheadNanos + Math.round(bits * 1e9 / clockHz);
+	}
+}
@@ -0,0 +1,75 @@
+package sensors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wakes the control loop when a sensor has a new sample, instead of it spinning on stale registers.
+ * Edges come in from an interrupt or timer thread through {@link #signal(long)} and the single loop thread
+ * blocks in {@link #await()}. Edges that pile up while the loop is busy collapse into one wakeup and are
+ * counted in {@link #missed()}.
+ */
+public abstract class DataReadySignal implements AutoCloseable {
+	private final AtomicLong edges = new AtomicLong();
+	private volatile long lastEdgeNanos;
+	private volatile Thread waiter;
+
+	private long consumed;
+	private long missed;
+
+	/**
+	 * Data ready pin of a sensor on a GPIO, rising edge triggered.
+	 */
+	public static DataReadySignal gpio(int gpio) {
+		return new GpioDataReady(gpio);
+	}
+
+	/**
+	 * Free running stand-in for the interrupt pin that fires rateHz times a second, for running the
+	 * interrupt driven loop without hardware.
+	 */
+	public static SimulatedDataReady simulated(double rateHz) {
+		return new SimulatedDataReady(rateHz);
+	}
+
+	/**
+	 * Called by the edge source for every edge.
+	 *
+	 * @param nanoTime System.nanoTime of the edge
+	 */
+	protected final void signal(long nanoTime) {
+		lastEdgeNanos = nanoTime;
+		edges.incrementAndGet();
+		var thread = waiter;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Block until an edge newer than the last one returned arrives. Only one thread may wait.
+	 *
+	 * @return System.nanoTime of the newest edge, the time the sample was taken
+	 */
+	public long await() throws InterruptedException {
+		waiter = Thread.currentThread();
+		long current;
+		while ((current = edges.get()) == consumed) {
+			LockSupport.park(this);
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+		missed += current - consumed - 1;
+		consumed = current;
+		return lastEdgeNanos;
+	}
+
+	/**
+	 * Edges that arrived while the loop was still busy with an earlier one, i.e. skipped samples.
+	 */
+	public long missed() {
+		return missed;
+	}
+
+	@Override
+	public abstract void close();
+}
@@ -0,0 +1,42 @@
+package sensors;
+
+import com.diozero.api.I2CDevice;
+
+final class DiozeroI2CDevice implements I2CRegisterDevice {
+	private final I2CDevice delegate;
+
+	DiozeroI2CDevice(int controller, int address) {
+		this.delegate = new I2CDevice(controller, address);
+	}
+
+	@Override
+	public byte readByteData(int register) {
+		return delegate.readByteData(register);
+	}
+
+	@Override
+	public void writeByteData(int register, byte data) {
+		delegate.writeByteData(register, data);
+	}
+
+	@Override
+	public void readI2CBlockData(int register, byte[] buffer) {
+		delegate.readI2CBlockData(register, buffer);
+	}
+
+	@Override
+	public byte[] readI2CBlockDataByteArray(int register, int length) {
+		return delegate.readI2CBlockDataByteArray(register, length);
+	}
+
+	@Override
+	public void readStream(int register, byte[] buffer) {
+		delegate.writeByte((byte) register);
+		delegate.readBytes(buffer);
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+}
@@ -0,0 +1,20 @@
+package sensors;
+
+import com.diozero.api.DigitalInputDevice;
+import com.diozero.api.GpioEventTrigger;
+import com.diozero.api.GpioPullUpDown;
+
+// the sensor's INT pin wired to a GPIO, diozero delivers the edges on its own event thread
+class GpioDataReady extends DataReadySignal {
+	private final DigitalInputDevice pin;
+
+	GpioDataReady(int gpio) {
+		pin = new DigitalInputDevice(gpio, GpioPullUpDown.NONE, GpioEventTrigger.RISING);
+		pin.addListener(event -> signal(event.getNanoTime()));
+	}
+
+	@Override
+	public void close() {
+		pin.close();
+	}
+}
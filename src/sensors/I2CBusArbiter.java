@@ -0,0 +1,397 @@
+package sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Owns one I2C bus. Every transaction of the devices attached to it runs on the arbiter's thread, one at a
+ * time and highest priority first, and is counted per device in {@link Statistics}. Callers hand their
+ * transaction over through a lock free queue and block until it's done, so the drivers keep their plain
+ * blocking calls from whichever thread they run on.
+ * <p>
+ * A transaction already on the wire isn't preempted, so an IMU read waits for at most the one in progress
+ * and the IMU reads queued before it, never for queued barometer or configuration traffic.
+ */
+public final class I2CBusArbiter implements AutoCloseable {
+	/**
+	 * Queue a device's reads go in. Writes are configuration traffic and always go in at LOW.
+	 */
+	public enum Priority {HIGH, NORMAL, LOW}
+
+	private static final int READ_BYTE = 0, WRITE_BYTE = 1, READ_BLOCK = 2, READ_STREAM = 3;
+	private static final int PRIORITIES = Priority.values().length;
+
+	private final String name;
+	private final Thread owner;
+	private final List<Port> ports = new ArrayList<>();
+	private final Statistics total;
+
+	// one intrusive stack per priority, pushed by callers and taken whole by the owner
+	private final AtomicReferenceArray<Transaction> submitted = new AtomicReferenceArray<>(PRIORITIES);
+	// owner only, what it took off the stacks in submission order
+	private final Transaction[] queueHead = new Transaction[PRIORITIES];
+	private final Transaction[] queueTail = new Transaction[PRIORITIES];
+
+	private volatile boolean closed;
+	private volatile boolean terminated;
+
+	public I2CBusArbiter(String name) {
+		this.name = name;
+		this.total = new Statistics(name);
+		this.owner = Thread.ofPlatform().daemon().name("i2c-" + name).unstarted(this::run);
+		owner.setPriority(Thread.MAX_PRIORITY);
+		owner.start();
+	}
+
+	/**
+	 * Route device's transactions through this bus from now on. The arbiter owns device and closes it when
+	 * the bus is closed, closing the returned device does nothing.
+	 *
+	 * @param name     device name for its statistics
+	 * @param priority queue for the device's reads
+	 */
+	public synchronized I2CRegisterDevice attach(String name, I2CRegisterDevice device, Priority priority) {
+		if (closed)
+			throw new IllegalStateException("bus " + this.name + " is closed");
+		var port = new Port(name, device, priority);
+		ports.add(port);
+		return port;
+	}
+
+	/**
+	 * Statistics of every attached device in attach order.
+	 */
+	public synchronized List<Statistics> devices() {
+		return ports.stream().map(port -> port.statistics).toList();
+	}
+
+	/**
+	 * Statistics of all transactions on the bus.
+	 */
+	public Statistics total() {
+		return total;
+	}
+
+	private void submit(Transaction transaction) {
+		if (closed)
+			throw new IllegalStateException("bus " + name + " is closed");
+
+		int priority = transaction.priority;
+		Transaction head;
+		do {
+			head = submitted.get(priority);
+			transaction.next = head;
+		} while (!submitted.compareAndSet(priority, head, transaction));
+		LockSupport.unpark(owner);
+
+		// the owner's last collect happens after terminated is set, anything pushed later is ours to fail
+		if (terminated)
+			failSubmitted();
+	}
+
+	private void run() {
+		while (true) {
+			collect();
+			var transaction = poll();
+			if (transaction != null) {
+				execute(transaction);
+			} else if (closed) {
+				break;
+			} else {
+				LockSupport.park(this);
+			}
+		}
+
+		terminated = true;
+		failSubmitted();
+		synchronized (this) {
+			for (var port : ports) {
+				try {
+					port.device.close();
+				} catch (RuntimeException e) {
+					// closing the rest matters more
+				}
+			}
+		}
+	}
+
+	// moves the stacks onto the queue tails, reversed back into submission order
+	private void collect() {
+		for (int priority = 0; priority < PRIORITIES; priority++) {
+			if (submitted.get(priority) == null)
+				continue;
+
+			Transaction reversed = null, first = submitted.getAndSet(priority, null);
+			for (var t = first; t != null; ) {
+				var next = t.next;
+				t.next = reversed;
+				reversed = t;
+				t = next;
+			}
+			if (queueTail[priority] == null)
+				queueHead[priority] = reversed;
+			else
+				queueTail[priority].next = reversed;
+			queueTail[priority] = first;
+		}
+	}
+
+	private Transaction poll() {
+		for (int priority = 0; priority < PRIORITIES; priority++) {
+			var transaction = queueHead[priority];
+			if (transaction != null) {
+				queueHead[priority] = transaction.next;
+				if (queueHead[priority] == null)
+					queueTail[priority] = null;
+				transaction.next = null;
+				return transaction;
+			}
+		}
+		return null;
+	}
+
+	private void execute(Transaction t) {
+		var device = t.port.device;
+		int bytes = 0;
+		long start = System.nanoTime();
+		try {
+			switch (t.kind) {
+				case READ_BYTE -> {
+					bytes = 2;
+					t.result = device.readByteData(t.register);
+				}
+				case WRITE_BYTE -> {
+					bytes = 2;
+					device.writeByteData(t.register, t.data);
+				}
+				case READ_BLOCK -> {
+					bytes = 1 + t.buffer.length;
+					device.readI2CBlockData(t.register, t.buffer);
+				}
+				case READ_STREAM -> {
+					bytes = 1 + t.buffer.length;
+					device.readStream(t.register, t.buffer);
+				}
+			}
+		} catch (RuntimeException e) {
+			t.error = e;
+		}
+		long end = System.nanoTime();
+
+		boolean failed = t.error != null;
+		t.port.statistics.record(bytes, end - start, end - t.submitted, failed);
+		total.record(bytes, end - start, end - t.submitted, failed);
+		complete(t);
+	}
+
+	private static void complete(Transaction t) {
+		var waiter = t.waiter;
+		t.done = true;
+		LockSupport.unpark(waiter);
+	}
+
+	private void failSubmitted() {
+		for (int priority = 0; priority < PRIORITIES; priority++) {
+			for (var t = submitted.getAndSet(priority, null); t != null; ) {
+				var next = t.next;
+				t.error = new IllegalStateException("bus " + name + " is closed");
+				complete(t);
+				t = next;
+			}
+		}
+	}
+
+	/**
+	 * Runs what's already queued, then stops the bus thread and closes the attached devices.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(owner);
+		boolean interrupted = false;
+		while (owner.isAlive()) {
+			try {
+				owner.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	@Override
+	public String toString() {
+		return "I2CBusArbiter[" + name + "]";
+	}
+
+	// one per port and reused, the port lock keeps at most one in flight
+	private static final class Transaction {
+		final Port port;
+		Transaction next;
+
+		int priority;
+		int kind;
+		int register;
+		byte data;
+		byte[] buffer;
+		long submitted;
+		Thread waiter;
+
+		byte result;
+		RuntimeException error;
+		volatile boolean done;
+
+		Transaction(Port port) {
+			this.port = port;
+		}
+	}
+
+	private final class Port implements I2CRegisterDevice {
+		final I2CRegisterDevice device;
+		final Priority priority;
+		final Statistics statistics;
+		private final Transaction transaction = new Transaction(this);
+
+		Port(String name, I2CRegisterDevice device, Priority priority) {
+			this.device = device;
+			this.priority = priority;
+			this.statistics = new Statistics(name);
+		}
+
+		@Override
+		public synchronized byte readByteData(int register) {
+			run(READ_BYTE, priority, register, (byte) 0, null);
+			return transaction.result;
+		}
+
+		@Override
+		public synchronized void writeByteData(int register, byte data) {
+			run(WRITE_BYTE, Priority.LOW, register, data, null);
+		}
+
+		@Override
+		public synchronized void readI2CBlockData(int register, byte[] buffer) {
+			run(READ_BLOCK, priority, register, (byte) 0, buffer);
+		}
+
+		@Override
+		public synchronized void readStream(int register, byte[] buffer) {
+			run(READ_STREAM, priority, register, (byte) 0, buffer);
+		}
+
+		// blocks until the bus thread ran it, an interrupt can't take back a queued transaction so it's kept for later
+		private void run(int kind, Priority priority, int register, byte data, byte[] buffer) {
+			var t = transaction;
+			t.kind = kind;
+			t.priority = priority.ordinal();
+			t.register = register;
+			t.data = data;
+			t.buffer = buffer;
+			t.error = null;
+			t.waiter = Thread.currentThread();
+			t.done = false;
+			t.submitted = System.nanoTime();
+			submit(t);
+
+			boolean interrupted = false;
+			while (!t.done) {
+				LockSupport.park(this);
+				if (Thread.interrupted())
+					interrupted = true;
+			}
+			t.buffer = null;
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (t.error != null)
+				throw t.error; // the device's own exception, thrown on the bus thread
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Transaction counts, bytes and timing of one device or the whole bus. Busy time is how long
+	 * transactions held the bus, latency is from submitting to completion so it includes waiting for the
+	 * bus. Latencies go in a histogram with power of two microsecond buckets.
+	 */
+	public static final class Statistics {
+		private static final int BUCKETS = 24;
+
+		private final String name;
+		private long transactions, bytes, errors;
+		private long busyNanos, maxLatencyNanos;
+		private final long[] latency = new long[BUCKETS]; // bucket 0 under 1us, bucket i from 2^(i-1)us to 2^i
+
+		Statistics(String name) {
+			this.name = name;
+		}
+
+		synchronized void record(int bytes, long busyNanos, long latencyNanos, boolean error) {
+			transactions++;
+			this.bytes += bytes;
+			if (error)
+				errors++;
+			this.busyNanos += busyNanos;
+			maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+			latency[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latencyNanos / 1000))]++;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public synchronized long transactions() {
+			return transactions;
+		}
+
+		/**
+		 * Register address and data bytes, not counting the device address.
+		 */
+		public synchronized long bytes() {
+			return bytes;
+		}
+
+		public synchronized long errors() {
+			return errors;
+		}
+
+		public synchronized long busyNanos() {
+			return busyNanos;
+		}
+
+		public synchronized long maxLatencyNanos() {
+			return maxLatencyNanos;
+		}
+
+		/**
+		 * Upper bound of the histogram bucket holding the q quantile of the latencies, 0 without any.
+		 */
+		public synchronized long latencyNanos(double q) {
+			long rank = (long) Math.ceil(q * transactions), seen = 0;
+			if (rank == 0)
+				return 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += latency[i];
+				if (seen >= rank)
+					return i == BUCKETS - 1 ? maxLatencyNanos : 1000L << i;
+			}
+			return maxLatencyNanos;
+		}
+
+		public synchronized long[] latencyHistogram() {
+			return latency.clone();
+		}
+
+		@Override
+		public synchronized String toString() {
+			return "%s: %d transactions, %d bytes, %d errors, busy %.1fms, latency p50 <%dus p99 <%dus max %dus"
+					.formatted(name, transactions, bytes, errors, busyNanos / 1e6,
+							latencyNanos(0.5) / 1000, latencyNanos(0.99) / 1000, maxLatencyNanos / 1000);
+		}
+	}
+}
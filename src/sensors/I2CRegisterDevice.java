@@ -0,0 +1,38 @@
+package sensors;
+
+/**
+ * The register level I2C operations the drivers use, so they run against real hardware through diozero or
+ * against the register models on a {@link SimulatedBus}. Registers are 8 bit addresses on one device.
+ */
+public interface I2CRegisterDevice extends AutoCloseable {
+	/**
+	 * Device on a real bus through diozero.
+	 */
+	static I2CRegisterDevice open(int controller, int address) {
+		return new DiozeroI2CDevice(controller, address);
+	}
+
+	byte readByteData(int register);
+
+	void writeByteData(int register, byte data);
+
+	/**
+	 * Fill buffer from consecutive registers starting at register, one SMBus block read so at most 32 bytes.
+	 */
+	void readI2CBlockData(int register, byte[] buffer);
+
+	default byte[] readI2CBlockDataByteArray(int register, int length) {
+		var buffer = new byte[length];
+		readI2CBlockData(register, buffer);
+		return buffer;
+	}
+
+	/**
+	 * Fill buffer by repeatedly reading one register that doesn't auto increment, like a FIFO data port.
+	 * A register pointer write then a plain read, so there's no 32 byte limit.
+	 */
+	void readStream(int register, byte[] buffer);
+
+	@Override
+	void close();
+}
@@ -0,0 +1,53 @@
+package sensors;
+
+/**
+ * Reusable batch of MPU6050 FIFO samples as primitive arrays, calibrated and in SI units like
+ * {@link MPU6050.Reading}. Filled by {@link MPU6050#readFifo(ImuBatch)}, only the first {@link #count()}
+ * entries are valid.
+ */
+public final class ImuBatch {
+	public final double[] gx, gy, gz; // rad/s
+	public final double[] ax, ay, az; // m/s^2
+	public final double[] temperature;
+	/**
+	 * System.nanoTime of each sample, derived from the sample rate with the newest sample at read time.
+	 */
+	public final long[] timestamp;
+
+	int count;
+	double dt;
+	boolean overflowed;
+
+	public ImuBatch(int capacity) {
+		gx = new double[capacity];
+		gy = new double[capacity];
+		gz = new double[capacity];
+		ax = new double[capacity];
+		ay = new double[capacity];
+		az = new double[capacity];
+		temperature = new double[capacity];
+		timestamp = new long[capacity];
+	}
+
+	public int capacity() {
+		return gx.length;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Seconds between consecutive samples, the sensor's own sample period.
+	 */
+	public double dt() {
+		return dt;
+	}
+
+	/**
+	 * True when the FIFO filled up before this read and was reset, samples were lost.
+	 */
+	public boolean overflowed() {
+		return overflowed;
+	}
+}
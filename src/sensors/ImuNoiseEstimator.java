@@ -0,0 +1,173 @@
+package sensors;
+
+import math.RunningStatistics;
+
+import static java.lang.Math.pow;
+
+/**
+ * Online gyro and accelerometer noise and bias estimate, fed every sample an {@link MPU6050} reads. A short
+ * window decides whether the vehicle is stationary: the spread of every axis under a threshold, the
+ * accelerometer's magnitude near G and the gyro's mean at the bias estimated so far. The last one tells a
+ * steady turn, which is just as smooth, from sitting still. Only stationary samples go into the long window,
+ * whose per axis means are the gyro bias and the accelerometer offset plus gravity, and whose variances are
+ * the sensor noise.
+ * Until enough stationary samples have been seen the variances are the datasheet constants.
+ * <p>
+ * The long window is exponential, it follows bias drift with temperature over a few seconds of sitting
+ * still and keeps its last values while the vehicle moves.
+ */
+public final class ImuNoiseEstimator {
+	static final int GX = 0, GY = 1, GZ = 2, AX = 3, AY = 4, AZ = 5;
+
+	private static final int DETECTION_WINDOW = 32; // samples
+	private static final int NOISE_WINDOW = 2048;
+	private static final int MIN_NOISE_SAMPLES = 64; // before the live variances replace the constants
+
+	// well above the chip's noise at the filter settings we use and well below a hand held wobble
+	private static final double STILL_GYRO_VARIANCE = pow(0.02, 2); // (rad/s)^2, about 1 deg/s
+	private static final double STILL_ACCEL_VARIANCE = pow(0.2, 2); // (m/s^2)^2
+	private static final double STILL_GRAVITY_TOLERANCE = 1; // m/s^2 between |accel| and G, offsets included
+	// gyro mean against the bias estimate, in standard deviations of the short window's mean, plus what the
+	// bias may drift between two stationary spells
+	private static final double BIAS_SIGMAS = 4;
+	private static final double BIAS_DRIFT_TOLERANCE = 0.005; // rad/s, about 0.3 deg/s
+	// before there's any estimate, the datasheet's zero rate output tolerance of 20 deg/s. The first
+	// stationary spell has to be really still, like calibrate() at startup
+	private static final double MAX_GYRO_BIAS = 0.35; // rad/s
+
+	private final RunningStatistics recent = new RunningStatistics(6, DETECTION_WINDOW);
+	private final RunningStatistics still = new RunningStatistics(6, NOISE_WINDOW);
+	private final double defaultGyroVariance, defaultAccelVariance;
+	private final double minGyroVariance, minAccelVariance;
+	private boolean stationary;
+
+	/**
+	 * @param gyroResolution  gyro LSB in rad/s, the estimate never goes below its rounding noise
+	 * @param accelResolution accelerometer LSB in m/s^2
+	 */
+	ImuNoiseEstimator(double defaultGyroVariance, double defaultAccelVariance, double gyroResolution, double accelResolution) {
+		this.defaultGyroVariance = defaultGyroVariance;
+		this.defaultAccelVariance = defaultAccelVariance;
+		// uniform rounding error, a noiseless signal otherwise reads as a variance of 0
+		this.minGyroVariance = gyroResolution * gyroResolution / 12;
+		this.minAccelVariance = accelResolution * accelResolution / 12;
+	}
+
+	/**
+	 * One sample before the calibration offsets are applied, rad/s and m/s^2, after the temperature bias
+	 * when the IMU has a {@link TemperatureBiasTable}.
+	 *
+	 * @return whether the vehicle is stationary, only then does the sample count towards the noise estimate
+	 */
+	boolean add(double gx, double gy, double gz, double ax, double ay, double az) {
+		recent.add(GX, gx);
+		recent.add(GY, gy);
+		recent.add(GZ, gz);
+		recent.add(AX, ax);
+		recent.add(AY, ay);
+		recent.add(AZ, az);
+
+		double mx = recent.mean(AX), my = recent.mean(AY), mz = recent.mean(AZ);
+		stationary = recent.count(GX) >= DETECTION_WINDOW
+				&& recent.variance(GX) < STILL_GYRO_VARIANCE
+				&& recent.variance(GY) < STILL_GYRO_VARIANCE
+				&& recent.variance(GZ) < STILL_GYRO_VARIANCE
+				&& recent.variance(AX) < STILL_ACCEL_VARIANCE
+				&& recent.variance(AY) < STILL_ACCEL_VARIANCE
+				&& recent.variance(AZ) < STILL_ACCEL_VARIANCE
+				&& Math.abs(Math.sqrt(mx * mx + my * my + mz * mz) - MPU6050.G) < STILL_GRAVITY_TOLERANCE
+				&& nearBias(GX) && nearBias(GY) && nearBias(GZ);
+		if (!stationary)
+			return false;
+
+		still.add(GX, gx);
+		still.add(GY, gy);
+		still.add(GZ, gz);
+		still.add(AX, ax);
+		still.add(AY, ay);
+		still.add(AZ, az);
+		return true;
+	}
+
+	// a steady rotation passes the spread checks, but its mean is off the bias by the rotation rate
+	private boolean nearBias(int channel) {
+		double mean = recent.mean(channel);
+		long count = still.count(channel);
+		if (count < MIN_NOISE_SAMPLES)
+			return Math.abs(mean) < MAX_GYRO_BIAS;
+
+		// both means are noisy, the short window's averages about DETECTION_WINDOW / 2 independent samples and
+		// the long one's at most NOISE_WINDOW / 2. The spread measured right now covers a noisier chip
+		double variance = Math.max(recent.variance(channel), gyroVariance(channel - GX));
+		double sigma = Math.sqrt(variance / (DETECTION_WINDOW / 2.0) + variance / Math.min(count, NOISE_WINDOW / 2));
+		return Math.abs(mean - still.mean(channel)) < BIAS_SIGMAS * sigma + BIAS_DRIFT_TOLERANCE;
+	}
+
+	// moves the gyro bias estimate, for a correction found by something else like the attitude filter
+	void shiftGyroBias(double x, double y, double z) {
+		still.shift(GX, x);
+		still.shift(GY, y);
+		still.shift(GZ, z);
+	}
+
+	// stationary mean of a channel, uncalibrated
+	double mean(int channel) {
+		return still.mean(channel);
+	}
+
+	long accelSamples() {
+		return still.count(AX);
+	}
+
+	// starts over, e.g. when the values fed in change meaning
+	void reset() {
+		recent.reset();
+		still.reset();
+		stationary = false;
+	}
+
+	// drops the accel history, e.g. when calibrating for a new attitude
+	void resetAccel() {
+		still.reset(AX);
+		still.reset(AY);
+		still.reset(AZ);
+	}
+
+	/**
+	 * Whether the last sample was taken sitting still.
+	 */
+	public boolean stationary() {
+		return stationary;
+	}
+
+	/**
+	 * Stationary samples seen so far.
+	 */
+	public long stationarySamples() {
+		return still.count(GX);
+	}
+
+	/**
+	 * Gyro noise variance of axis 0, 1 or 2 for x, y and z in (rad/s)^2.
+	 */
+	public double gyroVariance(int axis) {
+		return still.count(GX) >= MIN_NOISE_SAMPLES
+				? Math.max(still.variance(GX + axis), minGyroVariance) : defaultGyroVariance;
+	}
+
+	/**
+	 * Accelerometer noise variance of axis 0, 1 or 2 for x, y and z in (m/s^2)^2.
+	 */
+	public double accelVariance(int axis) {
+		return still.count(AX) >= MIN_NOISE_SAMPLES
+				? Math.max(still.variance(AX + axis), minAccelVariance) : defaultAccelVariance;
+	}
+
+	@Override
+	public String toString() {
+		return "ImuNoiseEstimator[%s, %d stationary samples, gyro sd (%.4f, %.4f, %.4f) rad/s, accel sd (%.4f, %.4f, %.4f) m/s^2]"
+				.formatted(stationary ? "stationary" : "moving", stationarySamples(),
+						Math.sqrt(gyroVariance(0)), Math.sqrt(gyroVariance(1)), Math.sqrt(gyroVariance(2)),
+						Math.sqrt(accelVariance(0)), Math.sqrt(accelVariance(1)), Math.sqrt(accelVariance(2)));
+	}
+}
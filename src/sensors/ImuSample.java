@@ -0,0 +1,18 @@
+package sensors;
+
+/**
+ * Mutable single IMU sample for the control loop, calibrated and in SI units like {@link MPU6050.Reading}.
+ * Filled by {@link MPU6050#read(ImuSample)}, one instance is reused for every read. Variances come from
+ * {@link MPU6050#noise()}.
+ */
+public final class ImuSample {
+	public double gx, gy, gz; // rad/s
+	public double ax, ay, az; // m/s^2
+	public double temperature;
+
+	@Override
+	public String toString() {
+		return "[gyro = (%3.3f, %3.3f, %3.3f), accel = (%3.3f, %3.3f, %3.3f), temperature = %3.3f]"
+				.formatted(gx, gy, gz, ax, ay, az, temperature);
+	}
+}
@@ -0,0 +1,27 @@
+package sensors;
+
+/**
+ * What a {@link SimulatedBus#mpu6050(ImuSignal) simulated MPU6050} measures, scripted or from a physics
+ * model. Values are in the units of {@link ImuSample}, gyro rad/s, accel m/s^2 reading +G on z at rest, and
+ * temperature C.
+ */
+@FunctionalInterface
+public interface ImuSignal {
+	/**
+	 * @param time seconds since the device was created
+	 * @param out  filled with the true values at time
+	 */
+	void sample(double time, ImuSample out);
+
+	/**
+	 * Level and not moving.
+	 */
+	static ImuSignal still() {
+		return (time, out) -> {
+			out.gx = out.gy = out.gz = 0;
+			out.ax = out.ay = 0;
+			out.az = MPU6050.G;
+			out.temperature = 25;
+		};
+	}
+}
@@ -1,12 +1,12 @@
 package sensors;
 
-import com.diozero.api.I2CDevice;
 import com.diozero.api.RuntimeIOException;
 import math.Vector3;
 
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
 
 import static java.lang.Math.PI;
 import static java.lang.Math.pow;
@@ -17,13 +17,12 @@ public class MPU6050 implements AutoCloseable {
 	private static final ValueLayout.OfShort MPU_SHORT = JAVA_SHORT_UNALIGNED.withOrder(BIG_ENDIAN);
 	public static final double G = 9.80665;
 
-	private static final double GYRO_VARIANCE_VAL = pow(0.05 * 2 * PI / 360., 2);
-	private static final Vector3 GYRO_VARIANCE = Vector3.of(GYRO_VARIANCE_VAL, GYRO_VARIANCE_VAL, GYRO_VARIANCE_VAL);
-	private static final double ACCEL_VARIANCE_VAL = pow(0.784, 2);
-	private static final Vector3 ACCEL_VARIANCE = Vector3.of(ACCEL_VARIANCE_VAL, ACCEL_VARIANCE_VAL, ACCEL_VARIANCE_VAL);
+	// until the noise estimator has seen the vehicle sit still for a moment
+	public static final double GYRO_VARIANCE_VAL = pow(0.05 * 2 * PI / 360., 2);
+	public static final double ACCEL_VARIANCE_VAL = pow(0.784, 2);
 
 	//https://invensense.tdk.com/wp-content/uploads/2015/02/MPU-6000-Datasheet1.pdf
-	private static final int DEFAULT_ADDRESS = 0x68;
+	public static final int DEFAULT_ADDRESS = 0x68;
 	private static final int OTHER_ADDRESS = 0x69;
 
 	// default sensitivities
@@ -37,15 +36,50 @@ public class MPU6050 implements AutoCloseable {
 	private static final double TEMPERATURE_DIVISOR = 340f;
 	private static final double TEMPERATURE_OFFSET = 36.53f;
 
+	// fifo, each sample is accel, temperature, gyro in register order
+	private static final int FIFO_SIZE = 1024;
+	private static final int FIFO_SAMPLE_BYTES = 14;
+	private static final double FIFO_BASE_RATE = 1000; // Hz with the low pass filter on
+
 	private static final int CALIBRATION_COUNT = 100;
+	/**
+	 * Enough for the accel offset when the estimator tracks gyro bias on its own.
+	 */
+	public static final int QUICK_CALIBRATION_COUNT = 10;
+	private static final long CALIBRATION_TIMEOUT_NANOS = 10_000_000_000L;
+
+	// added to the converted raw values, the negated stationary means
+	private double gyroOffsetX, gyroOffsetY, gyroOffsetZ;
+	private double accelOffsetX, accelOffsetY, accelOffsetZ;
+
+	private final ImuNoiseEstimator noise =
+			new ImuNoiseEstimator(GYRO_VARIANCE_VAL, ACCEL_VARIANCE_VAL, GYRO_CONVERSION, ACCEL_CONVERSION);
+	// accel calibration in progress until this many stationary samples, 0 when there's none
+	private long accelCalibrationSamples;
+	private double upX, upY, upZ;
+	private final ImuSample readSample = new ImuSample(); // for calibrate and read()
+
+	// bias by die temperature, subtracted first so the offsets above only track what the table misses
+	private TemperatureBiasTable biasTable;
+	private final double[] temperatureBias = new double[TemperatureBiasTable.CHANNELS]; // zero without a table
+	private TemperatureBiasTable.Fitter biasFitter;
 
-	private Vector3 accelSpirit = Vector3.zero();
-	private Vector3 gyroSpirit = Vector3.zero();
+	private final I2CRegisterDevice delegate;
 
-	private final I2CDevice delegate;
+	private boolean fifoEnabled = false;
+	private final byte[] fifoCount = new byte[2];
+	private final byte[] sampleBuffer = new byte[FIFO_SAMPLE_BYTES]; // accel, temperature, gyro registers
+	private final byte[][] fifoBuffers = new byte[FIFO_SIZE / FIFO_SAMPLE_BYTES + 1][]; // by sample count
 
 	public MPU6050(int controller) {
-		delegate = new I2CDevice(controller, DEFAULT_ADDRESS);
+		this(I2CRegisterDevice.open(controller, DEFAULT_ADDRESS));
+	}
+
+	/**
+	 * Driver on any register device, e.g. one from {@link SimulatedBus#mpu6050(ImuSignal)}.
+	 */
+	public MPU6050(I2CRegisterDevice device) {
+		delegate = device;
 		configure();
 	}
 
@@ -69,32 +103,277 @@ public class MPU6050 implements AutoCloseable {
 	}
 
 	public void calibrate(Vector3 up) {
-		Vector3 gyro = Vector3.zero();
-		Vector3 accel = Vector3.zero();
-
-		for (int i = 0; i < CALIBRATION_COUNT; i++) {
-			var reading = read();
+		calibrate(up, CALIBRATION_COUNT);
+	}
 
-			gyro = gyro.add(reading.gyro());
-			accel = accel.add(reading.accel());
+	/**
+	 * Read until the accel offset is calibrated, see {@link #startCalibration(Vector3, int)}. Zero samples
+	 * skips calibration entirely.
+	 *
+	 * @param up      direction of gravity in the body frame while sitting still
+	 * @param samples how many stationary readings to average
+	 * @throws IllegalStateException if the vehicle doesn't sit still long enough within 10s
+	 */
+	public void calibrate(Vector3 up, int samples) {
+		if (samples <= 0)
+			return;
+
+		startCalibration(up, samples);
+		long start = System.nanoTime();
+		while (calibrating()) {
+			if (System.nanoTime() - start > CALIBRATION_TIMEOUT_NANOS)
+				throw new IllegalStateException("not stationary, " + noise);
+			read(readSample);
 		}
+	}
+
+	/**
+	 * Calibrate the accel offset from the reads that follow, without blocking. Every stationary sample
+	 * moves it to the mean of the stationary samples since the call, until there have been samples of them. The
+	 * gyro offset doesn't need this, it follows the stationary gyro mean all the time.
+	 *
+	 * @param up      direction of gravity in the body frame while sitting still
+	 * @param samples how many stationary readings to average
+	 */
+	public void startCalibration(Vector3 up, int samples) {
+		upX = up.x();
+		upY = up.y();
+		upZ = up.z();
+		// the accel means so far may be from another attitude, start them over
+		noise.resetAccel();
+		accelCalibrationSamples = Math.max(1, samples);
+	}
+
+	public boolean calibrating() {
+		return accelCalibrationSamples > 0;
+	}
+
+	/**
+	 * Fold a gyro bias estimated elsewhere (e.g. online by the attitude filter) into the gyro offset. The
+	 * stationary bias estimate moves with it, so sitting still refines the correction instead of undoing it.
+	 *
+	 * @param bias bias in rad/s to subtract from future readings
+	 */
+	public void correctGyroBias(Vector3 bias) {
+		gyroOffsetX -= bias.x();
+		gyroOffsetY -= bias.y();
+		gyroOffsetZ -= bias.z();
+		noise.shiftGyroBias(bias.x(), bias.y(), bias.z());
+	}
+
+	/**
+	 * Subtract the bias table's bias at the die temperature from every sample, or nothing with null. The
+	 * online offsets then only track what the table misses, so they start over and the accel offset needs
+	 * calibrating again, set it before {@link #calibrate(Vector3)}.
+	 */
+	public void setBiasTable(TemperatureBiasTable table) {
+		biasTable = table;
+		Arrays.fill(temperatureBias, 0);
+		noise.reset();
+		gyroOffsetX = gyroOffsetY = gyroOffsetZ = 0;
+		accelOffsetX = accelOffsetY = accelOffsetZ = 0;
+	}
+
+	/**
+	 * Hand every stationary sample, before any bias correction, to fitter from now on, null stops.
+	 */
+	public void recordBias(TemperatureBiasTable.Fitter fitter) {
+		biasFitter = fitter;
+	}
 
-		gyroSpirit = gyroSpirit.add(gyro.scale(1.0 / CALIBRATION_COUNT));
-		accelSpirit = accelSpirit.add(accel.scale(1.0 / CALIBRATION_COUNT));
+	/**
+	 * Live noise and bias estimate, its variances are the ones in {@link Reading}.
+	 */
+	public ImuNoiseEstimator noise() {
+		return noise;
+	}
 
-		accelSpirit = accelSpirit.add(up.scale(-G));
+	// every sample goes through here before its offsets are applied, the caller subtracts temperatureBias
+	private void track(double temperature, double gx, double gy, double gz, double ax, double ay, double az) {
+		if (biasTable != null)
+			biasTable.lookup(temperature, temperatureBias);
+		var b = temperatureBias;
+		if (!noise.add(gx - b[0], gy - b[1], gz - b[2], ax - b[3], ay - b[4], az - b[5]))
+			return;
+		if (biasFitter != null)
+			biasFitter.add(temperature, gx, gy, gz, ax, ay, az);
+
+		// sitting still the gyro reads nothing but its bias
+		gyroOffsetX = -noise.mean(ImuNoiseEstimator.GX);
+		gyroOffsetY = -noise.mean(ImuNoiseEstimator.GY);
+		gyroOffsetZ = -noise.mean(ImuNoiseEstimator.GZ);
+
+		if (accelCalibrationSamples > 0) {
+			accelOffsetX = upX * G - noise.mean(ImuNoiseEstimator.AX);
+			accelOffsetY = upY * G - noise.mean(ImuNoiseEstimator.AY);
+			accelOffsetZ = upZ * G - noise.mean(ImuNoiseEstimator.AZ);
+			if (noise.accelSamples() >= accelCalibrationSamples)
+				accelCalibrationSamples = 0;
+		}
+	}
+
+	/**
+	 * Allocation free {@link #read()}, one block read into a buffer owned by the device and decoded straight
+	 * into sample.
+	 *
+	 * @return sample, for chaining
+	 */
+	public ImuSample read(ImuSample sample) {
+		var buffer = sampleBuffer;
+		delegate.readI2CBlockData(Registers.ACCEL_X_REGISTER, buffer);
+
+		double ax = bigEndianShort(buffer, 0) * ACCEL_CONVERSION;
+		double ay = bigEndianShort(buffer, 2) * ACCEL_CONVERSION;
+		double az = bigEndianShort(buffer, 4) * ACCEL_CONVERSION;
+		double gx = bigEndianShort(buffer, 8) * GYRO_CONVERSION;
+		double gy = bigEndianShort(buffer, 10) * GYRO_CONVERSION;
+		double gz = bigEndianShort(buffer, 12) * GYRO_CONVERSION;
+		double temperature = processRawTemperature(bigEndianShort(buffer, 6));
+		track(temperature, gx, gy, gz, ax, ay, az);
+
+		var b = temperatureBias;
+		sample.ax = ax - b[3] + accelOffsetX;
+		sample.ay = ay - b[4] + accelOffsetY;
+		sample.az = az - b[5] + accelOffsetZ;
+		sample.temperature = temperature;
+		sample.gx = gx - b[0] + gyroOffsetX;
+		sample.gy = gy - b[1] + gyroOffsetY;
+		sample.gz = gz - b[2] + gyroOffsetZ;
+		return sample;
 	}
 
+	/**
+	 * Latest sample with the noise estimator's current variances.
+	 */
 	public Reading read() {
-		var data = readArray(Registers.ACCEL_X_REGISTER, MPU_SHORT, 7);
+		var sample = read(readSample);
+		return new Reading(sample.temperature, 1,
+				Vector3.of(sample.gx, sample.gy, sample.gz),
+				Vector3.of(noise.gyroVariance(0), noise.gyroVariance(1), noise.gyroVariance(2)),
+				Vector3.of(sample.ax, sample.ay, sample.az),
+				Vector3.of(noise.accelVariance(0), noise.accelVariance(1), noise.accelVariance(2)));
+	}
+
+	/**
+	 * Switch to FIFO acquisition, the chip queues every sample and {@link #readFifo(ImuBatch)} drains them in
+	 * one burst. Also turns on the digital low pass filter, which puts the gyro on the accelerometer's 1kHz
+	 * base rate. Call it after calibrating, the register reads keep working but see filtered values.
+	 */
+	public void enableFifo() {
+		writeConfiguration("Stopping FIFO",
+				Registers.FIFO_CONFIGURATION,
+				RegisterValues.FIFO_DISABLED);
+		enableLowPassFilter();
+		resetFifo();
+		writeConfiguration("Configuring FIFO (accel, temperature, gyro)",
+				Registers.FIFO_CONFIGURATION,
+				RegisterValues.FIFO_ACCEL_TEMPERATURE_GYRO);
+		fifoEnabled = true;
+	}
+
+	/**
+	 * Pulse the INT pin (active high, 50us) whenever a new sample lands in the data registers, wire it to a
+	 * GPIO and wait on {@link DataReadySignal#gpio(int)} before each {@link #read()}. Turns on the low pass
+	 * filter like {@link #enableFifo()}, so the pulses come at {@link #sampleRate()} rather than the 8kHz
+	 * unfiltered gyro rate.
+	 */
+	public void enableDataReadyInterrupt() {
+		enableLowPassFilter();
+		writeConfiguration("Configuring interrupt pin",
+				Registers.INTERRUPT_PIN_CONFIGURATION,
+				RegisterValues.INTERRUPT_PIN_PULSE);
+		writeConfiguration("Enabling data ready interrupt",
+				Registers.ENABLE_INTERRUPTS,
+				RegisterValues.DATA_READY_INTERRUPT);
+	}
+
+	private void enableLowPassFilter() {
+		writeConfiguration("Configuring low pass filter",
+				Registers.LOW_PASS_FILTER,
+				RegisterValues.LOW_PASS_CONFIG);
+	}
+
+	private void resetFifo() {
+		// the reset bit clears itself, so it can't go through writeConfiguration
+		delegate.writeByteData(Registers.USER_CONTROL, RegisterValues.FIFO_RESET);
+		writeConfiguration("Enabling FIFO",
+				Registers.USER_CONTROL,
+				RegisterValues.FIFO_ENABLED);
+	}
+
+	/**
+	 * Samples per second in FIFO and data ready interrupt mode.
+	 */
+	public double sampleRate() {
+		return FIFO_BASE_RATE / (1 + RegisterValues.DEFAULT_SAMPLE_DIVISOR);
+	}
+
+	/**
+	 * Drain whole samples from the FIFO into batch, at most its capacity, the rest stays queued. Costs the
+	 * count read plus one burst read however many samples there are. Timestamps are spaced by the sample
+	 * period, the newest one at the time of the call.
+	 *
+	 * @return the number of samples read, also {@link ImuBatch#count()}
+	 */
+	public int readFifo(ImuBatch batch) {
+		if (!fifoEnabled)
+			throw new IllegalStateException("FIFO mode is not enabled");
+
+		long now = System.nanoTime();
+		batch.dt = 1 / sampleRate();
+		batch.count = 0;
+		batch.overflowed = false;
+
+		delegate.readI2CBlockData(Registers.FIFO_COUNT, fifoCount);
+		int bytes = ((fifoCount[0] & 0xff) << 8) | (fifoCount[1] & 0xff);
+		if (bytes > FIFO_SIZE - FIFO_SIZE % FIFO_SAMPLE_BYTES) {
+			// more than whole samples fit, so the chip has been overwriting and they are no longer aligned.
+			// 73 queued samples are 1022 bytes and still fine
+			resetFifo();
+			batch.overflowed = true;
+			return 0;
+		}
 
-		var accel = processRawAccel(data.getAtIndex(MPU_SHORT, 0), data.getAtIndex(MPU_SHORT, 1), data.getAtIndex(MPU_SHORT, 2));
-		var temperature = processRawTemperature(data.getAtIndex(MPU_SHORT, 3));
-		var gyro = processRawGyro(data.getAtIndex(MPU_SHORT, 4), data.getAtIndex(MPU_SHORT, 5), data.getAtIndex(MPU_SHORT, 6));
+		int samples = Math.min(bytes / FIFO_SAMPLE_BYTES, batch.capacity());
+		if (samples == 0)
+			return 0;
+
+		var buffer = fifoBuffers[samples];
+		if (buffer == null)
+			buffer = fifoBuffers[samples] = new byte[samples * FIFO_SAMPLE_BYTES];
+
+		// FIFO_R_W doesn't auto increment, so a plain read after setting the pointer streams the queue.
+		// smbus block reads would cap this at 32 bytes
+		delegate.readStream(Registers.FIFO_READ_WRITE, buffer);
+
+		long period = Math.round(batch.dt * 1e9);
+		for (int i = 0; i < samples; i++) {
+			int o = i * FIFO_SAMPLE_BYTES;
+			double ax = bigEndianShort(buffer, o) * ACCEL_CONVERSION;
+			double ay = bigEndianShort(buffer, o + 2) * ACCEL_CONVERSION;
+			double az = bigEndianShort(buffer, o + 4) * ACCEL_CONVERSION;
+			double gx = bigEndianShort(buffer, o + 8) * GYRO_CONVERSION;
+			double gy = bigEndianShort(buffer, o + 10) * GYRO_CONVERSION;
+			double gz = bigEndianShort(buffer, o + 12) * GYRO_CONVERSION;
+			double temperature = processRawTemperature(bigEndianShort(buffer, o + 6));
+			track(temperature, gx, gy, gz, ax, ay, az);
+
+			var b = temperatureBias;
+			batch.ax[i] = ax - b[3] + accelOffsetX;
+			batch.ay[i] = ay - b[4] + accelOffsetY;
+			batch.az[i] = az - b[5] + accelOffsetZ;
+			batch.temperature[i] = temperature;
+			batch.gx[i] = gx - b[0] + gyroOffsetX;
+			batch.gy[i] = gy - b[1] + gyroOffsetY;
+			batch.gz[i] = gz - b[2] + gyroOffsetZ;
+			batch.timestamp[i] = now - (samples - 1 - i) * period;
+		}
+		batch.count = samples;
+		return samples;
+	}
 
-		return new Reading(temperature, 1, gyro, GYRO_VARIANCE, accel, ACCEL_VARIANCE);
-// TODO: gyro and accel variance here
-//		return new Reading(temperature, 1, gyro, accel);
+	private static short bigEndianShort(byte[] buffer, int offset) {
+		return (short) ((buffer[offset] << 8) | (buffer[offset + 1] & 0xff));
 	}
 
 	public Vector3 readGyro() {
@@ -115,7 +394,9 @@ public class MPU6050 implements AutoCloseable {
 	}
 
 	private Vector3 processRawAccel(short x, short y, short z) {
-		return Vector3.of(x, y, z).scale(ACCEL_CONVERSION).sub(accelSpirit);
+		var b = temperatureBias; // from the last full sample
+		return Vector3.of(x * ACCEL_CONVERSION - b[3] + accelOffsetX, y * ACCEL_CONVERSION - b[4] + accelOffsetY,
+				z * ACCEL_CONVERSION - b[5] + accelOffsetZ);
 	}
 
 	private double processRawTemperature(short raw) {
@@ -123,7 +404,9 @@ public class MPU6050 implements AutoCloseable {
 	}
 
 	private Vector3 processRawGyro(short x, short y, short z) {
-		return Vector3.of(x, y, z).scale(GYRO_CONVERSION).sub(gyroSpirit);
+		var b = temperatureBias;
+		return Vector3.of(x * GYRO_CONVERSION - b[0] + gyroOffsetX, y * GYRO_CONVERSION - b[1] + gyroOffsetY,
+				z * GYRO_CONVERSION - b[2] + gyroOffsetZ);
 	}
 
 	/**
@@ -144,7 +427,7 @@ public class MPU6050 implements AutoCloseable {
 	}
 
 	private MemorySegment readArray(int startAddress, MemoryLayout layout, int count) {
-		return MemorySegment.ofBuffer(delegate.readI2CBlockDataByteBuffer(startAddress, (int) layout.byteSize() * count));
+		return MemorySegment.ofArray(delegate.readI2CBlockDataByteArray(startAddress, (int) layout.byteSize() * count));
 	}
 
 	@Override
@@ -174,11 +457,15 @@ public class MPU6050 implements AutoCloseable {
 		 */
 		byte ACCELEROMETER_CONFIGURATION = 0x1c;
 		/**
-		 * FIFO (not used)
+		 * Which sensors are written to the FIFO
 		 */
 		byte FIFO_CONFIGURATION = 0x23;
 		/**
-		 * Enable interrupts (disabling)
+		 * INT pin level, open drain and latching behaviour
+		 */
+		byte INTERRUPT_PIN_CONFIGURATION = 0x37;
+		/**
+		 * Enable interrupts (disabled unless data ready mode is on)
 		 */
 		byte ENABLE_INTERRUPTS = 0x38;
 		/**
@@ -235,13 +522,21 @@ public class MPU6050 implements AutoCloseable {
 		 */
 		byte SIGNAL_PATH_RESET = 0x68;
 		/**
-		 * I2C management
+		 * I2C management, also enables and resets the FIFO
 		 */
-		byte I2C_CONFIG = 0x6a;
+		byte USER_CONTROL = 0x6a;
 		/**
 		 * Basic power management
 		 */
 		byte POWER_MANAGEMENT_CONFIG = 0x6b;
+		/**
+		 * Register for high bits of the number of bytes in the FIFO, low bits in the next register.
+		 */
+		byte FIFO_COUNT = 0x72;
+		/**
+		 * Reading this repeatedly pops bytes off the FIFO.
+		 */
+		byte FIFO_READ_WRITE = 0x74;
 		/**
 		 * The I2C address (6-bits)
 		 */
@@ -286,10 +581,30 @@ public class MPU6050 implements AutoCloseable {
 		 * Disabling FIFO buffer
 		 */
 		byte FIFO_DISABLED = 0x0;
+		/**
+		 * Queue accelerometer, temperature and all gyro axes, 14 bytes per sample
+		 */
+		byte FIFO_ACCEL_TEMPERATURE_GYRO = (byte) 0xf8;
+		/**
+		 * USER_CONTROL with the FIFO on
+		 */
+		byte FIFO_ENABLED = 0x40;
+		/**
+		 * USER_CONTROL with the FIFO on and the reset bit set, which clears itself
+		 */
+		byte FIFO_RESET = 0x44;
 		/**
 		 * Disabling interrupts
 		 */
 		byte INTERRUPT_DISABLED = 0x0;
+		/**
+		 * Interrupt only when new data is ready
+		 */
+		byte DATA_READY_INTERRUPT = 0x1;
+		/**
+		 * INT pin active high, push pull, 50us pulse rather than latched until read
+		 */
+		byte INTERRUPT_PIN_PULSE = 0x0;
 		/**
 		 * Disabling standby modes
 		 */
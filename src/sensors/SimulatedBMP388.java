@@ -0,0 +1,335 @@
+package sensors;
+
+import java.util.Arrays;
+
+/*
+BMP388 register model. Holds a real chip's calibration bytes and turns the signal's pressure and temperature
+into the raw values that compensate back to them, by inverting BMP388.Compensation. Converts once per
+forced mode request or every odr period in normal mode, taking the datasheet's measurement time for the
+configured oversampling, and queues frames in a 512 byte FIFO with the chip's header format.
+ */
+final class SimulatedBMP388 extends SimulatedI2CDevice {
+	private static final int CHIP_ID = 0x00, ERR_REG = 0x02, STATUS = 0x03;
+	private static final int PRESSURE_DATA = 0x04, TEMPERATURE_DATA = 0x07, SENSOR_TIME = 0x0c;
+	private static final int FIFO_LENGTH = 0x12, FIFO_DATA = 0x14, FIFO_CONFIG_0 = 0x17, FIFO_CONFIG_1 = 0x18;
+	private static final int PWR_CTRL = 0x1b, OSR = 0x1c, ODR = 0x1d, CALIBRATION = 0x31, CMD = 0x7e;
+
+	private static final int FIFO_SIZE = 512;
+	private static final int CMD_READY = 0x10, PRESSURE_READY = 0x20, TEMPERATURE_READY = 0x40;
+	private static final int CONFIG_ERROR = 0x04;
+	private static final double SENSOR_TIME_TICK_NANOS = 39062.5;
+
+	// NVM dump from a BMP388 breakout
+	private static final byte[] CALIBRATION_DATA = {
+			(byte) 0x98, 0x6b, (byte) 0xb9, 0x49, (byte) 0xf6, (byte) 0x8e, 0x00, (byte) 0xd6, (byte) 0xf9, 0x1d, 0x01,
+			0x57, 0x5f, 0x1c, 0x71, 0x03, (byte) 0xfa, 0x0a, 0x45, 0x12, (byte) 0xc4};
+	private static final BMP388.Compensation COMPENSATION =
+			new BMP388.Compensation(new BMP388.CalibrationData(CALIBRATION_DATA));
+
+	private final BaroSignal signal;
+	private final long start = System.nanoTime();
+
+	private final byte[] registers = new byte[128];
+	private long forcedDone = -1; // end of the running forced conversion, -1 when there's none
+	private long normalStart;
+	private long conversionIndex; // conversions done since normalStart
+	private int rawPressure = 1 << 22, rawTemperature = 1 << 23; // starting points for the inversions
+
+	private final byte[] fifo = new byte[FIFO_SIZE];
+	private int fifoHead, fifoCount;
+	private final byte[] tail = new byte[4]; // what FIFO_DATA returns once the queue is empty
+	private int tailPosition, tailLength;
+	private boolean timeFrameSent;
+
+	SimulatedBMP388(SimulatedBus bus, BaroSignal signal) {
+		super(bus);
+		this.signal = signal;
+		reset();
+	}
+
+	private void reset() {
+		Arrays.fill(registers, (byte) 0);
+		registers[CHIP_ID] = 0x50;
+		registers[ODR] = 0;
+		registers[FIFO_CONFIG_0] = 0x02;
+		registers[FIFO_CONFIG_1] = 0x02;
+		System.arraycopy(CALIBRATION_DATA, 0, registers, CALIBRATION, CALIBRATION_DATA.length);
+		forcedDone = -1;
+		flush();
+	}
+
+	private void flush() {
+		fifoHead = fifoCount = 0;
+		tailPosition = tailLength = 0;
+		timeFrameSent = false;
+	}
+
+	private boolean pressureOn() {
+		return (registers[PWR_CTRL] & 0x01) != 0;
+	}
+
+	private boolean temperatureOn() {
+		return (registers[PWR_CTRL] & 0x02) != 0;
+	}
+
+	private int mode() {
+		return (registers[PWR_CTRL] >> 4) & 0x3;
+	}
+
+	// datasheet measurement time, 234us plus per enabled sensor a fixed part and 2020us per oversample
+	private long measurementNanos() {
+		int pressureOversample = 1 << (registers[OSR] & 0x7);
+		int temperatureOversample = 1 << ((registers[OSR] >> 3) & 0x7);
+		long micros = 234;
+		if (pressureOn()) micros += 392 + 2020L * pressureOversample;
+		if (temperatureOn()) micros += 163 + 2020L * temperatureOversample;
+		return micros * 1000;
+	}
+
+	private long periodNanos() {
+		return 5_000_000L << Math.min(registers[ODR] & 0x1f, 17);
+	}
+
+	@Override
+	void update(long now) {
+		if (forcedDone >= 0 && now >= forcedDone) {
+			convert(forcedDone);
+			forcedDone = -1;
+			registers[PWR_CTRL] &= ~0x30; // back to sleep
+		}
+
+		if (mode() == 3) {
+			long period = periodNanos();
+			long index = (now - normalStart) / period;
+			// a long gap only leaves the newest frames in the FIFO, skip straight to them
+			long first = Math.max(conversionIndex + 1, index - FIFO_SIZE / 4 - 1);
+			int subsampling = 1 << (registers[FIFO_CONFIG_1] & 0x7);
+			for (long i = first; i <= index; i++) {
+				convert(normalStart + i * period);
+				if (i % subsampling == 0)
+					queueSample();
+			}
+			conversionIndex = Math.max(conversionIndex, index);
+		}
+	}
+
+	private void convert(long time) {
+		double t = (time - start) / 1e9;
+		double temperature = signal.temperature(t);
+
+		if (temperatureOn()) {
+			rawTemperature = rawTemperature(temperature);
+			put(TEMPERATURE_DATA, rawTemperature);
+			registers[STATUS] |= TEMPERATURE_READY;
+		}
+		if (pressureOn()) {
+			rawPressure = rawPressure(signal.pressure(t), COMPENSATION.temperature(rawTemperature));
+			put(PRESSURE_DATA, rawPressure);
+			registers[STATUS] |= PRESSURE_READY;
+		}
+		put(SENSOR_TIME, sensorTime(time));
+	}
+
+	// T = d (t2 + d t3) with d = raw - t1, newton from the linear solution
+	private static int rawTemperature(double temperature) {
+		int raw = rawTemperatureGuess(temperature);
+		for (int i = 0; i < 4; i++) {
+			double error = COMPENSATION.temperature(raw) - temperature;
+			double slope = COMPENSATION.temperature(raw + 256) - COMPENSATION.temperature(raw);
+			if (slope == 0)
+				break;
+			raw = clampRaw(raw - Math.round(error * 256 / slope));
+		}
+		return raw;
+	}
+
+	private static int rawTemperatureGuess(double temperature) {
+		double zero = COMPENSATION.temperature(0), slope = COMPENSATION.temperature(1 << 23) - zero;
+		return clampRaw(Math.round((temperature - zero) / slope * (1 << 23)));
+	}
+
+	// the pressure polynomial is monotonic in raw over the sensor's range, newton on finite differences
+	private int rawPressure(double pressure, double temperature) {
+		int raw = rawPressure;
+		for (int i = 0; i < 8; i++) {
+			double error = COMPENSATION.pressure(raw, temperature) - pressure;
+			double slope = COMPENSATION.pressure(raw + 256, temperature) - COMPENSATION.pressure(raw, temperature);
+			if (slope == 0)
+				break;
+			long step = Math.round(error * 256 / slope);
+			raw = clampRaw(raw - step);
+			if (step == 0)
+				break;
+		}
+		return raw;
+	}
+
+	private static int clampRaw(long raw) {
+		return (int) Math.max(0, Math.min((1 << 24) - 1, raw));
+	}
+
+	private int sensorTime(long time) {
+		return (int) ((long) ((time - start) / SENSOR_TIME_TICK_NANOS) & 0xffffff);
+	}
+
+	// 24 bit little endian
+	private void put(int register, int value) {
+		registers[register] = (byte) value;
+		registers[register + 1] = (byte) (value >> 8);
+		registers[register + 2] = (byte) (value >> 16);
+	}
+
+	private void queueSample() {
+		int config = registers[FIFO_CONFIG_0];
+		if ((config & 0x01) == 0)
+			return;
+
+		boolean temperature = (config & 0x10) != 0 && temperatureOn();
+		boolean pressure = (config & 0x08) != 0 && pressureOn();
+		if (!temperature && !pressure)
+			return;
+
+		int header = 0x80 | (pressure ? 0x04 : 0) | (temperature ? 0x10 : 0);
+		int length = 1 + (temperature ? 3 : 0) + (pressure ? 3 : 0);
+		if (!makeRoom(length))
+			return;
+
+		push((byte) header);
+		if (temperature) pushRaw(rawTemperature);
+		if (pressure) pushRaw(rawPressure);
+	}
+
+	private void queueConfigError() {
+		if ((registers[FIFO_CONFIG_0] & 0x01) != 0 && makeRoom(2)) {
+			push((byte) 0x44);
+			push((byte) CONFIG_ERROR);
+		}
+	}
+
+	// with stop on full the new frame is dropped, otherwise whole frames are dropped from the front
+	private boolean makeRoom(int length) {
+		while (FIFO_SIZE - fifoCount < length) {
+			if ((registers[FIFO_CONFIG_0] & 0x02) != 0 || fifoCount == 0)
+				return false;
+			int dropped = frameLength(fifo[fifoHead] & 0xff);
+			fifoHead = (fifoHead + dropped) % FIFO_SIZE;
+			fifoCount -= dropped;
+		}
+		timeFrameSent = false;
+		return true;
+	}
+
+	private static int frameLength(int header) {
+		return switch (header) {
+			case 0x94 -> 7;
+			case 0x90, 0x84 -> 4;
+			default -> 2;
+		};
+	}
+
+	private void pushRaw(int raw) {
+		push((byte) raw);
+		push((byte) (raw >> 8));
+		push((byte) (raw >> 16));
+	}
+
+	private void push(byte value) {
+		fifo[(fifoHead + fifoCount) % FIFO_SIZE] = value;
+		fifoCount++;
+	}
+
+	private byte popFifo() {
+		if (fifoCount > 0) {
+			byte value = fifo[fifoHead];
+			fifoHead = (fifoHead + 1) % FIFO_SIZE;
+			fifoCount--;
+			return value;
+		}
+
+		if (tailPosition == tailLength) {
+			// drained, one sensor time frame if it's enabled and then empty frames
+			tailPosition = 0;
+			if ((registers[FIFO_CONFIG_0] & 0x04) != 0 && !timeFrameSent) {
+				int time = sensorTime(System.nanoTime());
+				tail[0] = (byte) 0xa0;
+				tail[1] = (byte) time;
+				tail[2] = (byte) (time >> 8);
+				tail[3] = (byte) (time >> 16);
+				tailLength = 4;
+				timeFrameSent = true;
+			} else {
+				tail[0] = (byte) 0x80;
+				tail[1] = 0;
+				tailLength = 2;
+			}
+		}
+		return tail[tailPosition++];
+	}
+
+	@Override
+	byte read(int register) {
+		switch (register) {
+			case STATUS:
+				return (byte) (registers[STATUS] | CMD_READY);
+			case ERR_REG:
+				byte error = registers[ERR_REG];
+				registers[ERR_REG] = 0; // cleared on read
+				return error;
+			case PRESSURE_DATA, PRESSURE_DATA + 1, PRESSURE_DATA + 2:
+				registers[STATUS] &= ~PRESSURE_READY;
+				return registers[register];
+			case TEMPERATURE_DATA, TEMPERATURE_DATA + 1, TEMPERATURE_DATA + 2:
+				registers[STATUS] &= ~TEMPERATURE_READY;
+				return registers[register];
+			case FIFO_LENGTH:
+				return (byte) fifoCount;
+			case FIFO_LENGTH + 1:
+				return (byte) (fifoCount >> 8);
+			case FIFO_DATA:
+				return popFifo();
+			default:
+				return registers[register & 0x7f];
+		}
+	}
+
+	@Override
+	void write(int register, byte data) {
+		switch (register) {
+			case CMD:
+				if ((data & 0xff) == 0xb0)
+					flush();
+				else if ((data & 0xff) == 0xb6)
+					reset();
+				break;
+			case PWR_CTRL:
+				registers[PWR_CTRL] = data;
+				startMode(System.nanoTime());
+				break;
+			case CHIP_ID, ERR_REG, STATUS, FIFO_LENGTH, FIFO_LENGTH + 1:
+				break; // read only
+			default:
+				if (register >= CALIBRATION && register < CALIBRATION + CALIBRATION_DATA.length)
+					break; // nvm
+				registers[register & 0x7f] = data;
+		}
+	}
+
+	private void startMode(long now) {
+		switch (mode()) {
+			case 1, 2 -> forcedDone = now + measurementNanos();
+			case 3 -> {
+				if (measurementNanos() > periodNanos()) {
+					// oversampling doesn't fit the period, the chip refuses and stays asleep
+					registers[ERR_REG] |= CONFIG_ERROR;
+					registers[PWR_CTRL] &= ~0x30;
+					queueConfigError();
+					return;
+				}
+				forcedDone = -1;
+				normalStart = now;
+				conversionIndex = 0;
+			}
+			default -> forcedDone = -1;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package sensors;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In process stand-in for an I2C bus with register models of the chips on the quad, so the drivers, loop
+ * and benchmarks run without hardware. Transactions from all devices on the bus are serialized and each
+ * one holds the bus for as long as {@link BusTiming} says it would take, measured in real time since the
+ * models are clocked by System.nanoTime like the drivers.
+ */
+public final class SimulatedBus {
+	private final BusTiming timing;
+
+	private long transactions;
+	private long busyNanos;
+
+	public SimulatedBus(BusTiming timing) {
+		this.timing = timing;
+	}
+
+	public BusTiming timing() {
+		return timing;
+	}
+
+	/**
+	 * MPU6050 register model sampling signal at its configured sample rate.
+	 */
+	public I2CRegisterDevice mpu6050(ImuSignal signal) {
+		return new SimulatedMPU6050(this, signal);
+	}
+
+	/**
+	 * BMP388 register model with real calibration bytes, converting signal in forced and normal mode.
+	 */
+	public I2CRegisterDevice bmp388(BaroSignal signal) {
+		return new SimulatedBMP388(this, signal);
+	}
+
+	public synchronized long transactions() {
+		return transactions;
+	}
+
+	/**
+	 * Total time the bus has been held by transactions.
+	 */
+	public synchronized long busyNanos() {
+		return busyNanos;
+	}
+
+	// called with the bus lock held, blocks for the transaction's duration
+	void transfer(int written, int read) {
+		long duration = timing.transactionNanos(written, read);
+		transactions++;
+		busyNanos += duration;
+		if (duration == 0)
+			return;
+
+		// park through most of it and spin the rest, parking alone overshoots by tens of microseconds
+		long deadline = System.nanoTime() + duration;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			if (remaining > 200_000)
+				LockSupport.parkNanos(remaining - 100_000);
+			else
+				Thread.onSpinWait();
+		}
+	}
+}
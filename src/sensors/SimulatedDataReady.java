@@ -0,0 +1,56 @@
+package sensors;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer thread standing in for a data ready pin. Fires at a fixed rate once started, or only on
+ * {@link #trigger()} for stepping a loop by hand.
+ */
+public class SimulatedDataReady extends DataReadySignal {
+	private final long periodNanos;
+	private Thread ticker;
+
+	SimulatedDataReady(double rateHz) {
+		if (!(rateHz > 0))
+			throw new IllegalArgumentException("rate must be positive");
+		periodNanos = Math.round(1e9 / rateHz);
+	}
+
+	/**
+	 * Start firing every period, deadlines are absolute so the rate doesn't drift with wakeup latency.
+	 */
+	public synchronized SimulatedDataReady start() {
+		if (ticker != null)
+			return this;
+
+		ticker = Thread.ofPlatform().daemon().name("simulated-data-ready").start(() -> {
+			long next = System.nanoTime() + periodNanos;
+			while (!Thread.currentThread().isInterrupted()) {
+				long wait;
+				while ((wait = next - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+					if (Thread.currentThread().isInterrupted())
+						return;
+				}
+				signal(next);
+				next += periodNanos;
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Fire one edge now.
+	 */
+	public void trigger() {
+		signal(System.nanoTime());
+	}
+
+	@Override
+	public synchronized void close() {
+		if (ticker != null) {
+			ticker.interrupt();
+			ticker = null;
+		}
+	}
+}
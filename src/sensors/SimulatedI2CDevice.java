@@ -0,0 +1,69 @@
+package sensors;
+
+/*
+Register model base for devices on a SimulatedBus. Every operation is one or two bus transactions, charged
+to the bus while holding its lock, so devices sharing a bus can't overlap just like on the wire. The model
+is brought up to date once per transaction and then read or written one register at a time.
+ */
+abstract class SimulatedI2CDevice implements I2CRegisterDevice {
+	private final SimulatedBus bus;
+
+	SimulatedI2CDevice(SimulatedBus bus) {
+		this.bus = bus;
+	}
+
+	// advance conversions, FIFOs and flags to now, System.nanoTime at the start of the transaction
+	abstract void update(long now);
+
+	abstract byte read(int register);
+
+	abstract void write(int register, byte data);
+
+	@Override
+	public byte readByteData(int register) {
+		synchronized (bus) {
+			update(System.nanoTime());
+			bus.transfer(1, 1);
+			return read(register);
+		}
+	}
+
+	@Override
+	public void writeByteData(int register, byte data) {
+		synchronized (bus) {
+			update(System.nanoTime());
+			bus.transfer(2, 0);
+			write(register, data);
+		}
+	}
+
+	@Override
+	public void readI2CBlockData(int register, byte[] buffer) {
+		if (buffer.length > 32)
+			throw new IllegalArgumentException("SMBus block reads are at most 32 bytes");
+
+		synchronized (bus) {
+			update(System.nanoTime());
+			bus.transfer(1, buffer.length);
+			for (int i = 0; i < buffer.length; i++) {
+				buffer[i] = read(register + i);
+			}
+		}
+	}
+
+	@Override
+	public void readStream(int register, byte[] buffer) {
+		synchronized (bus) {
+			update(System.nanoTime());
+			bus.transfer(1, 0); // pointer write
+			bus.transfer(0, buffer.length);
+			for (int i = 0; i < buffer.length; i++) {
+				buffer[i] = read(register);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,181 @@
+package sensors;
+
+import java.util.Arrays;
+
+import static java.lang.Math.round;
+import static java.lang.Math.toDegrees;
+
+/*
+MPU6050 register model. Samples the signal at the rate set by the sample rate divider and low pass filter,
+latches it into the data registers and, with the FIFO on, queues the enabled registers of every sample.
+Full scale ranges come from the gyro and accel configuration like on the chip.
+ */
+final class SimulatedMPU6050 extends SimulatedI2CDevice {
+	private static final int SAMPLE_RATE_DIVISOR = 0x19, LOW_PASS_FILTER = 0x1a;
+	private static final int GYRO_CONFIGURATION = 0x1b, ACCELEROMETER_CONFIGURATION = 0x1c;
+	private static final int FIFO_CONFIGURATION = 0x23, INTERRUPT_STATUS = 0x3a, ACCEL_X = 0x3b;
+	private static final int USER_CONTROL = 0x6a, POWER_MANAGEMENT = 0x6b;
+	private static final int FIFO_COUNT = 0x72, FIFO_READ_WRITE = 0x74, WHO_AM_I = 0x75;
+
+	private static final int FIFO_SIZE = 1024;
+	private static final int DATA_BYTES = 14; // accel, temperature, gyro
+	private static final int SLEEP = 0x40, DEVICE_RESET = 0x80, FIFO_ENABLE = 0x40, FIFO_RESET = 0x04;
+	private static final int DATA_READY = 0x01, FIFO_OVERFLOW = 0x10;
+
+	private final ImuSignal signal;
+	private final ImuSample truth = new ImuSample();
+	private final long start = System.nanoTime();
+
+	private final byte[] registers = new byte[128];
+	private final byte[] sample = new byte[DATA_BYTES];
+	private long sampleIndex = -1; // last sample taken, the first one lands right at sampleStart
+	private long sampleStart = start; // sample clock origin, moves on wakeup and rate changes
+
+	private final byte[] fifo = new byte[FIFO_SIZE];
+	private int fifoHead, fifoCount;
+
+	SimulatedMPU6050(SimulatedBus bus, ImuSignal signal) {
+		super(bus);
+		this.signal = signal;
+		reset();
+	}
+
+	private void reset() {
+		Arrays.fill(registers, (byte) 0);
+		registers[POWER_MANAGEMENT] = SLEEP;
+		registers[WHO_AM_I] = 0x68;
+		fifoHead = fifoCount = 0;
+	}
+
+	private long samplePeriodNanos() {
+		int filter = registers[LOW_PASS_FILTER] & 0x7;
+		int baseRate = filter == 0 || filter == 7 ? 8000 : 1000;
+		return 1_000_000_000L * (1 + (registers[SAMPLE_RATE_DIVISOR] & 0xff)) / baseRate;
+	}
+
+	@Override
+	void update(long now) {
+		if ((registers[POWER_MANAGEMENT] & SLEEP) != 0) {
+			sampleStart = now;
+			sampleIndex = -1;
+			return;
+		}
+
+		long period = samplePeriodNanos();
+		long index = (now - sampleStart) / period;
+		if (index <= sampleIndex)
+			return;
+
+		// a long gap only leaves the newest samples in the FIFO, skip straight to them
+		long first = Math.max(sampleIndex + 1, index - FIFO_SIZE / DATA_BYTES - 1);
+		boolean fifoOn = (registers[USER_CONTROL] & FIFO_ENABLE) != 0 && registers[FIFO_CONFIGURATION] != 0;
+		for (long i = fifoOn ? first : index; i <= index; i++) {
+			take(sampleStart + i * period);
+			if (fifoOn)
+				queue();
+		}
+		sampleIndex = index;
+		registers[INTERRUPT_STATUS] |= DATA_READY;
+	}
+
+	private void take(long time) {
+		signal.sample((time - start) / 1e9, truth);
+
+		double gyroScale = 131.0 / (1 << ((registers[GYRO_CONFIGURATION] >> 3) & 0x3)); // LSB per deg/s
+		double accelScale = 16384.0 / (1 << ((registers[ACCELEROMETER_CONFIGURATION] >> 3) & 0x3)) / MPU6050.G;
+
+		put(0, truth.ax * accelScale);
+		put(2, truth.ay * accelScale);
+		put(4, truth.az * accelScale);
+		put(6, (truth.temperature - 36.53) * 340);
+		put(8, toDegrees(truth.gx) * gyroScale);
+		put(10, toDegrees(truth.gy) * gyroScale);
+		put(12, toDegrees(truth.gz) * gyroScale);
+		System.arraycopy(sample, 0, registers, ACCEL_X, DATA_BYTES);
+	}
+
+	// big endian, saturating like the ADC
+	private void put(int offset, double value) {
+		long raw = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, round(value)));
+		sample[offset] = (byte) (raw >> 8);
+		sample[offset + 1] = (byte) raw;
+	}
+
+	// FIFO_EN bits 7..3 are temperature, gyro x, y, z and accel, bytes go in register order
+	private void queue() {
+		int enabled = registers[FIFO_CONFIGURATION];
+		if ((enabled & 0x08) != 0) push(0, 6);
+		if ((enabled & 0x80) != 0) push(6, 2);
+		if ((enabled & 0x40) != 0) push(8, 2);
+		if ((enabled & 0x20) != 0) push(10, 2);
+		if ((enabled & 0x10) != 0) push(12, 2);
+	}
+
+	// when full the oldest bytes are overwritten, so the queue loses its sample alignment like the real one
+	private void push(int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			if (fifoCount == FIFO_SIZE) {
+				fifoHead = (fifoHead + 1) % FIFO_SIZE;
+				fifoCount--;
+				registers[INTERRUPT_STATUS] |= FIFO_OVERFLOW;
+			}
+			fifo[(fifoHead + fifoCount) % FIFO_SIZE] = sample[offset + i];
+			fifoCount++;
+		}
+	}
+
+	@Override
+	byte read(int register) {
+		switch (register) {
+			case FIFO_COUNT:
+				return (byte) (fifoCount >> 8);
+			case FIFO_COUNT + 1:
+				return (byte) fifoCount;
+			case FIFO_READ_WRITE:
+				if (fifoCount == 0)
+					return 0;
+				byte value = fifo[fifoHead];
+				fifoHead = (fifoHead + 1) % FIFO_SIZE;
+				fifoCount--;
+				return value;
+			case INTERRUPT_STATUS:
+				byte status = registers[INTERRUPT_STATUS];
+				registers[INTERRUPT_STATUS] = 0; // cleared on read
+				return status;
+			default:
+				return registers[register & 0x7f];
+		}
+	}
+
+	@Override
+	void write(int register, byte data) {
+		switch (register) {
+			case USER_CONTROL:
+				if ((data & FIFO_RESET) != 0)
+					fifoHead = fifoCount = 0;
+				registers[USER_CONTROL] = (byte) (data & ~FIFO_RESET);
+				break;
+			case POWER_MANAGEMENT:
+				if ((data & DEVICE_RESET) != 0)
+					reset();
+				else
+					registers[POWER_MANAGEMENT] = data;
+				break;
+			case SAMPLE_RATE_DIVISOR:
+			case LOW_PASS_FILTER:
+			case GYRO_CONFIGURATION:
+			case ACCELEROMETER_CONFIGURATION:
+				// restart the sample clock, the next sample comes at the new rate and range
+				registers[register] = data;
+				sampleStart = System.nanoTime();
+				sampleIndex = -1;
+				break;
+			case FIFO_COUNT:
+			case FIFO_COUNT + 1:
+			case WHO_AM_I:
+				break; // read only
+			default:
+				registers[register & 0x7f] = data;
+		}
+	}
+}
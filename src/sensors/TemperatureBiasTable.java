@@ -0,0 +1,220 @@
+package sensors;
+
+import math.Vector3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Gyro and accelerometer bias of one IMU as a function of its die temperature, on a uniform temperature grid
+ * and linearly interpolated, so looking it up costs the same few multiplies at any temperature. Outside the
+ * measured range it holds the nearest entry rather than extrapolating the drift.
+ * <p>
+ * Fitted by a {@link Fitter} from stationary samples over a warm up, saved with {@link #save(Path)} and loaded
+ * at startup with {@link #load(Path)}. The file is text, a header line, the grid and one line per entry:
+ * <pre>
+ * mpu6050-bias 1
+ * grid 20.0 2.0 3
+ * 20.0 0.0312 -0.0291 0.0007 0.2987 0.0012 -0.0411
+ * 22.0 ...
+ * </pre>
+ * with the first temperature, the step in C and the entry count, then per entry its temperature and the gyro
+ * bias in rad/s and accel bias in m/s^2, x y z each.
+ */
+public final class TemperatureBiasTable {
+	private static final String HEADER = "mpu6050-bias 1";
+	static final int CHANNELS = 6; // gx, gy, gz, ax, ay, az
+
+	private final double minTemperature, step, inverseStep;
+	private final int entries;
+	private final double[] bias; // entry-major, CHANNELS per entry
+
+	TemperatureBiasTable(double minTemperature, double step, double[] bias) {
+		if (!(step > 0) || bias.length == 0 || bias.length % CHANNELS != 0)
+			throw new IllegalArgumentException("step must be positive and the table hold whole entries");
+		this.minTemperature = minTemperature;
+		this.step = step;
+		this.inverseStep = 1 / step;
+		this.entries = bias.length / CHANNELS;
+		this.bias = bias.clone();
+	}
+
+	/**
+	 * Bias of every channel at temperature into out, gyro x y z then accel x y z.
+	 */
+	public void lookup(double temperature, double[] out) {
+		double index = (temperature - minTemperature) * inverseStep;
+		int i;
+		double f;
+		if (!(index > 0)) { // also NaN
+			i = 0;
+			f = 0;
+		} else if (index >= entries - 1) {
+			i = entries - 1;
+			f = 0;
+		} else {
+			i = (int) index;
+			f = index - i;
+		}
+
+		int o = i * CHANNELS;
+		int next = i < entries - 1 ? o + CHANNELS : o;
+		for (int c = 0; c < CHANNELS; c++) {
+			double a = bias[o + c];
+			out[c] = a + f * (bias[next + c] - a);
+		}
+	}
+
+	public double minTemperature() {
+		return minTemperature;
+	}
+
+	public double maxTemperature() {
+		return minTemperature + (entries - 1) * step;
+	}
+
+	public int entries() {
+		return entries;
+	}
+
+	public void save(Path path) throws IOException {
+		var lines = new ArrayList<String>();
+		lines.add(HEADER);
+		lines.add(String.format(Locale.ROOT, "grid %s %s %d", minTemperature, step, entries));
+		for (int i = 0; i < entries; i++) {
+			var line = new StringBuilder(Double.toString(minTemperature + i * step));
+			for (int c = 0; c < CHANNELS; c++) {
+				line.append(' ').append(bias[i * CHANNELS + c]);
+			}
+			lines.add(line.toString());
+		}
+		Files.write(path, lines);
+	}
+
+	public static TemperatureBiasTable load(Path path) throws IOException {
+		var lines = Files.readAllLines(path).stream().map(String::strip).filter(line -> !line.isEmpty()).toList();
+		if (lines.isEmpty() || !lines.get(0).equals(HEADER))
+			throw new IOException(path + ": not a bias table, expected '" + HEADER + "'");
+
+		try {
+			var grid = lines.get(1).split("\\s+");
+			if (grid.length != 4 || !grid[0].equals("grid"))
+				throw new IOException(path + ": expected 'grid <min> <step> <entries>'");
+			double min = Double.parseDouble(grid[1]), step = Double.parseDouble(grid[2]);
+			int entries = Integer.parseInt(grid[3]);
+			if (lines.size() != 2 + entries)
+				throw new IOException(path + ": " + entries + " entries declared but " + (lines.size() - 2) + " found");
+
+			var bias = new double[entries * CHANNELS];
+			for (int i = 0; i < entries; i++) {
+				var values = lines.get(2 + i).split("\\s+");
+				if (values.length != 1 + CHANNELS)
+					throw new IOException(path + ": entry " + i + " needs a temperature and " + CHANNELS + " biases");
+				for (int c = 0; c < CHANNELS; c++) {
+					bias[i * CHANNELS + c] = Double.parseDouble(values[1 + c]);
+				}
+			}
+			return new TemperatureBiasTable(min, step, bias);
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException(path + ": malformed bias table", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TemperatureBiasTable[%.1fC to %.1fC, %d entries]".formatted(minTemperature, maxTemperature(), entries);
+	}
+
+	/**
+	 * Collects stationary samples into temperature bins, feed it through
+	 * {@link MPU6050#recordBias(Fitter)} while the board sits still and warms up. Every bin with enough
+	 * samples becomes an entry at its mean, bins in between that got too few are interpolated from their
+	 * neighbours.
+	 */
+	public static final class Fitter {
+		private static final double MIN_TEMPERATURE = -40, MAX_TEMPERATURE = 85; // the chip's operating range
+		private static final int MIN_BIN_SAMPLES = 100;
+
+		private final double step;
+		private final double upX, upY, upZ;
+		private final long[] count;
+		private final double[] sum;
+
+		/**
+		 * @param up   direction of gravity in the body frame while sitting still
+		 * @param step bin width in C
+		 */
+		public Fitter(Vector3 up, double step) {
+			if (!(step > 0))
+				throw new IllegalArgumentException("step must be positive");
+			this.step = step;
+			this.upX = up.x();
+			this.upY = up.y();
+			this.upZ = up.z();
+			int bins = (int) Math.ceil((MAX_TEMPERATURE - MIN_TEMPERATURE) / step) + 1;
+			this.count = new long[bins];
+			this.sum = new double[bins * CHANNELS];
+		}
+
+		// one stationary sample before any offsets
+		void add(double temperature, double gx, double gy, double gz, double ax, double ay, double az) {
+			int bin = (int) Math.round((temperature - MIN_TEMPERATURE) / step);
+			if (bin < 0 || bin >= count.length)
+				return;
+
+			count[bin]++;
+			int o = bin * CHANNELS;
+			sum[o] += gx;
+			sum[o + 1] += gy;
+			sum[o + 2] += gz;
+			sum[o + 3] += ax - upX * MPU6050.G;
+			sum[o + 4] += ay - upY * MPU6050.G;
+			sum[o + 5] += az - upZ * MPU6050.G;
+		}
+
+		public long samples() {
+			return Arrays.stream(count).sum();
+		}
+
+		/**
+		 * @throws IllegalStateException when no bin has enough samples yet
+		 */
+		public TemperatureBiasTable fit() {
+			int first = -1, last = -1;
+			for (int bin = 0; bin < count.length; bin++) {
+				if (count[bin] >= MIN_BIN_SAMPLES) {
+					if (first < 0) first = bin;
+					last = bin;
+				}
+			}
+			if (first < 0)
+				throw new IllegalStateException("no temperature has " + MIN_BIN_SAMPLES + " stationary samples yet");
+
+			var bias = new double[(last - first + 1) * CHANNELS];
+			int previous = first;
+			for (int bin = first; bin <= last; bin++) {
+				if (count[bin] < MIN_BIN_SAMPLES)
+					continue;
+
+				int o = (bin - first) * CHANNELS;
+				for (int c = 0; c < CHANNELS; c++) {
+					bias[o + c] = sum[bin * CHANNELS + c] / count[bin];
+				}
+				// the gap since the previous measured bin, linearly
+				for (int gap = previous + 1; gap < bin; gap++) {
+					double f = (double) (gap - previous) / (bin - previous);
+					int g = (gap - first) * CHANNELS, p = (previous - first) * CHANNELS;
+					for (int c = 0; c < CHANNELS; c++) {
+						bias[g + c] = bias[p + c] + f * (bias[o + c] - bias[p + c]);
+					}
+				}
+				previous = bin;
+			}
+			return new TemperatureBiasTable(MIN_TEMPERATURE + first * step, step, bias);
+		}
+	}
+}
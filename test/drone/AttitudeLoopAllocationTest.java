@@ -0,0 +1,76 @@
+package drone;
+
+import math.MutableQuaternion;
+import math.MutableVector3;
+import math.PIDBank;
+import org.junit.jupiter.api.Test;
+import pose.AttitudeEstimator;
+import testing.Allocations;
+
+import java.util.Random;
+
+import static drone.DroneConstants.ATTITUDE_GAINS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// MainLoop's per iteration work, every attitude estimator's update and the error path after it, allocates nothing
+class AttitudeLoopAllocationTest {
+    private static final int ITERATIONS = 100_000;
+    private static final int INPUTS = 1024;
+
+    // the loop's state and scratch, like MainLoop sets them up
+    private final MutableQuaternion quadFrameTransform = new MutableQuaternion().setAxisAngle(Math.PI / 4, 0, 0, 1).normalize();
+    private final MutableQuaternion targetOri = new MutableQuaternion().setAxisAngle(0.1, 1, 0, 0);
+    private final MutableQuaternion oriError = new MutableQuaternion();
+    private final MutableVector3 errorVector = new MutableVector3();
+    private final MutableVector3 gyro = new MutableVector3();
+    private final PIDBank attitude = new PIDBank(ATTITUDE_GAINS);
+    private final double[] angleError = new double[3], quadRates = new double[3], attitudeOutput = new double[3];
+
+    // noisy hovering samples, gx gy gz ax ay az each
+    private final double[] inputs = new double[INPUTS * 6];
+    private double sink; // a field so the outputs stay live
+
+    @Test
+    void loopIterationAllocatesNothing() {
+        var random = new Random(1);
+        for (int i = 0; i < inputs.length; i += 6) {
+            inputs[i] = 0.2 * random.nextGaussian();
+            inputs[i + 1] = 0.2 * random.nextGaussian();
+            inputs[i + 2] = 0.2 * random.nextGaussian();
+            inputs[i + 3] = random.nextGaussian();
+            inputs[i + 4] = random.nextGaussian();
+            inputs[i + 5] = 9.81 + random.nextGaussian();
+        }
+
+        for (var type : AttitudeEstimator.Type.values()) {
+            var ori = type.create();
+            assertEquals(0, Allocations.of(() -> iterate(ori)), type + " bytes over " + ITERATIONS + " iterations");
+        }
+    }
+
+    private void iterate(AttitudeEstimator ori) {
+        double dt = 0.001;
+        for (int n = 0; n < ITERATIONS; n++) {
+            int i = (n % INPUTS) * 6;
+            double gx = inputs[i], gy = inputs[i + 1], gz = inputs[i + 2];
+            ori.setSensorVariances(1e-4, 1e-4, 1e-4, 0.0025, 0.0025, 0.0025);
+            ori.update(dt, gx, gy, gz, inputs[i + 3], inputs[i + 4], inputs[i + 5]);
+            gyro.set(gx, gy, gz);
+
+            oriError.mulConj(targetOri, ori.orientation()).preMul(quadFrameTransform);
+            oriError.mulConj(oriError, quadFrameTransform);
+            oriError.errorVector(errorVector);
+
+            gyro.rotate(quadFrameTransform);
+            angleError[PIDBank.ROLL] = errorVector.x;
+            angleError[PIDBank.PITCH] = errorVector.y;
+            angleError[PIDBank.YAW] = errorVector.z;
+            quadRates[PIDBank.ROLL] = gyro.x;
+            quadRates[PIDBank.PITCH] = gyro.y;
+            quadRates[PIDBank.YAW] = gyro.z;
+            attitude.update(dt, angleError, quadRates, attitudeOutput);
+
+            sink += attitudeOutput[PIDBank.ROLL] + ori.globalAccel().z + ori.rotation().m22;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package drone;
+
+import org.junit.jupiter.api.Test;
+import testing.Allocations;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// MotorMixer.quadX for the body frame and for MainLoop's 45 degree control frame without motors attached,
+// mix() only computes the powers
+class MotorMixerTest {
+    private static final double[] FRAME_ROTATIONS = {0, Math.PI / 4};
+    private static final int[] SPIN = {1, -1, -1, 1}; // as in quadX
+    private static final int COMMANDS = 1_000_000;
+
+    private final Random random = new Random(13);
+    private final double[] torque = new double[3];
+
+    @Test
+    void singleAxisCommandsTorqueAboutThatAxisAlone() {
+        for (double frameRotation : FRAME_ROTATIONS) {
+            var mixer = MotorMixer.quadX(frameRotation, null, null, null, null);
+            double[] arms = arms(frameRotation);
+            for (int axis = 0; axis < 3; axis++) {
+                for (double command : new double[] {-0.2, 0.2}) {
+                    mixer.mix(0.5, axis == 0 ? command : 0, axis == 1 ? command : 0, axis == 2 ? command : 0);
+                    torque(mixer, arms);
+                    String name = frame(frameRotation) + ", axis " + axis + " at " + command;
+                    assertEquals(Math.signum(command), Math.signum(torque[axis]), name);
+                    for (int other = 0; other < 3; other++) {
+                        if (other != axis) assertEquals(0, torque[other], 1e-12, name + ", torque about " + other);
+                    }
+                }
+            }
+        }
+    }
+
+    // up to far past saturation, the powers minus their mean are the commanded attitude part, scaled down
+    // only past the full range
+    @Test
+    void randomCommandsStayInRangeAndKeepTheirShape() {
+        for (double frameRotation : FRAME_ROTATIONS) {
+            var mixer = MotorMixer.quadX(frameRotation, null, null, null, null);
+            var expected = new MotorMixer(new Motor[4], arms(frameRotation), SPIN);
+            var attitude = new double[4];
+            double outOfRange = 0, shapeError = 0;
+            for (int i = 0; i < COMMANDS; i++) {
+                double thrust = 3 * random.nextDouble() - 1;
+                double roll = 4 * random.nextDouble() - 2, pitch = 4 * random.nextDouble() - 2, yaw = 2 * random.nextDouble() - 1;
+                mixer.mix(thrust, roll, pitch, yaw);
+                outOfRange = Math.max(outOfRange, outOfRange(mixer));
+
+                expected.mix(0, roll, pitch, yaw);
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+                for (int m = 0; m < 4; m++) {
+                    attitude[m] = expected.power(m);
+                    min = Math.min(min, attitude[m]);
+                    max = Math.max(max, attitude[m]);
+                }
+                double scale = max - min > 1 ? 1 / (max - min) : 1;
+                for (int m = 0; m < 4; m++) {
+                    double commanded = (attitude[m] - attitude[0]) * scale;
+                    shapeError = Math.max(shapeError, Math.abs(mixer.power(m) - mixer.power(0) - commanded));
+                }
+            }
+            // max + (1 - max) can round one ulp past 1, Motor.setPower clamps that
+            assertEquals(0, outOfRange, 1e-12, frame(frameRotation) + ", out of [0, 1] by");
+            assertEquals(0, shapeError, 1e-12, frame(frameRotation) + ", attitude shape error");
+        }
+    }
+
+    @Test
+    void nanCommandsStayInRange() {
+        for (double frameRotation : FRAME_ROTATIONS) {
+            var mixer = MotorMixer.quadX(frameRotation, null, null, null, null);
+            for (int i = 0; i < 16; i++) {
+                mixer.mix((i & 1) != 0 ? Double.NaN : 0.5, (i & 2) != 0 ? Double.NaN : 0.1,
+                        (i & 4) != 0 ? Double.NaN : -0.1, (i & 8) != 0 ? Double.NaN : 0.05);
+                assertTrue(outOfRange(mixer) == 0, frame(frameRotation) + ", NaN combination " + i);
+            }
+        }
+    }
+
+    @Test
+    void mixAllocatesNothing() {
+        for (double frameRotation : FRAME_ROTATIONS) {
+            var mixer = MotorMixer.quadX(frameRotation, null, null, null, null);
+            assertEquals(0, Allocations.of(() -> {
+                for (int i = 0; i < 100_000; i++) mixer.mix(0.5, 0.3 * Math.sin(i), 0.3 * Math.cos(i), 0.1);
+            }), frame(frameRotation) + ", bytes allocated by 100000 mixes");
+        }
+    }
+
+    // arm directions in the control frame, same as quadX
+    private static double[] arms(double frameRotation) {
+        double d = Math.PI / 4;
+        return new double[] {d - frameRotation, -d - frameRotation, 3 * d - frameRotation, -3 * d - frameRotation};
+    }
+
+    private static String frame(double frameRotation) {
+        return "%.0f deg frame".formatted(Math.toDegrees(frameRotation));
+    }
+
+    // roll torque is y * F, pitch -x * F and yaw the spin times F, thrust around hover cancels out
+    private void torque(MotorMixer mixer, double[] arms) {
+        torque[0] = torque[1] = torque[2] = 0;
+        for (int m = 0; m < 4; m++) {
+            double f = mixer.power(m) - 0.5;
+            torque[0] += Math.sin(arms[m]) * f;
+            torque[1] += -Math.cos(arms[m]) * f;
+            torque[2] += SPIN[m] * f;
+        }
+    }
+
+    private static double outOfRange(MotorMixer mixer) {
+        double worst = 0;
+        for (int m = 0; m < 4; m++) {
+            double p = mixer.power(m);
+            if (!(p >= 0 && p <= 1)) worst = Math.max(worst, p != p ? Double.POSITIVE_INFINITY : Math.max(-p, p - 1));
+        }
+        return worst;
+    }
+}
@@ -0,0 +1,96 @@
+package math;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// every approximation over its documented range against the bound in FastMath's comment
+class FastMathTest {
+	private static final int GRID = 2_000_000, RANDOM = 2_000_000;
+
+	private final Random random = new Random(9);
+
+	// the reduction is where big arguments lose accuracy, so the whole range and not just one period
+	@Test
+	void sinAndCos() {
+		assertEquals(0, maxError(FastMath::sin, Math::sin, -1e5, 1e5), 1e-8, "sin |x| <= 1e5");
+		assertEquals(0, maxError(FastMath::sin, Math::sin, -2 * Math.PI, 2 * Math.PI), 1e-8, "sin |x| <= 2pi");
+		assertEquals(0, maxError(FastMath::cos, Math::cos, -1e5, 1e5), 1e-8, "cos |x| <= 1e5");
+		assertEquals(0, maxError(FastMath::cos, Math::cos, -2 * Math.PI, 2 * Math.PI), 1e-8, "cos |x| <= 2pi");
+	}
+
+	@Test
+	void sinAndCosFallBackToMath() {
+		assertEquals(Math.sin(1e6 + 0.3), FastMath.sin(1e6 + 0.3), "sin past the limit");
+		assertEquals(Math.cos(-3e7), FastMath.cos(-3e7), "cos past the limit");
+		assertEquals(Double.NaN, FastMath.sin(Double.NaN), "sin(NaN)");
+		assertEquals(Double.NaN, FastMath.cos(Double.POSITIVE_INFINITY), "cos(inf)");
+	}
+
+	@Test
+	void atan() {
+		assertEquals(0, maxError(FastMath::atan, Math::atan, -10, 10), 1e-7, "|x| <= 10");
+		assertEquals(0, maxError(FastMath::atan, Math::atan, -1e6, 1e6), 1e-7, "|x| <= 1e6");
+	}
+
+	// every angle at radii from 1e-300 to 1e300, the octant folding and the division are what's tested
+	@Test
+	void atan2AroundTheCircle() {
+		double error = 0;
+		for (int i = 0; i < GRID; i++) {
+			double angle = 2 * Math.PI * i / GRID - Math.PI;
+			double radius = Math.pow(10, 600.0 * random.nextDouble() - 300);
+			double y = radius * Math.sin(angle), x = radius * Math.cos(angle);
+			error = Math.max(error, Math.abs(FastMath.atan2(y, x) - Math.atan2(y, x)));
+		}
+		assertEquals(0, error, 1e-7);
+	}
+
+	@Test
+	void atan2SignedZerosNaNAndInfinities() {
+		double[] special = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for (double y : special) {
+			for (double x : new double[] {0.0, -0.0, 1, -1, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+				assertEquals(Math.atan2(y, x), FastMath.atan2(y, x), "atan2(" + y + ", " + x + ")");
+			}
+		}
+	}
+
+	@Test
+	void asinAndAcos() {
+		assertEquals(0, maxError(FastMath::asin, Math::asin, -1, 1), 2e-7, "asin");
+		assertEquals(0, maxError(FastMath::acos, Math::acos, -1, 1), 2e-7, "acos");
+	}
+
+	// random normal doubles with uniform exponents, and every mantissa step of one binade
+	@Test
+	void invSqrt() {
+		double error = 0;
+		for (int i = 0; i < RANDOM; i++) {
+			double x = Math.scalb(1 + random.nextDouble(), random.nextInt(Double.MIN_EXPONENT, Double.MAX_EXPONENT + 1));
+			error = Math.max(error, Math.abs(FastMath.invSqrt(x) * Math.sqrt(x) - 1));
+		}
+		for (int i = 0; i < GRID; i++) {
+			double x = 1 + 3.0 * i / GRID; // two binades, the odd and even exponent
+			error = Math.max(error, Math.abs(FastMath.invSqrt(x) * Math.sqrt(x) - 1));
+		}
+		assertEquals(0, error, 5e-11, "relative");
+	}
+
+	// absolute error on a uniform grid over [from, to], both ends included, and at random points in it
+	private double maxError(DoubleUnaryOperator fast, DoubleUnaryOperator exact, double from, double to) {
+		double error = 0;
+		for (int i = 0; i <= GRID; i++) {
+			double x = from + (to - from) * i / GRID;
+			error = Math.max(error, Math.abs(fast.applyAsDouble(x) - exact.applyAsDouble(x)));
+		}
+		for (int i = 0; i < RANDOM; i++) {
+			double x = from + (to - from) * random.nextDouble();
+			error = Math.max(error, Math.abs(fast.applyAsDouble(x) - exact.applyAsDouble(x)));
+		}
+		return error;
+	}
+}
@@ -0,0 +1,97 @@
+package math;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// KalmanFilter3x2 against the general KalmanFilter on the same random sequences
+class KalmanFilter3x2Test {
+	private static final int SEQUENCES = 50, STEPS = 20_000;
+	private static final double TOLERANCE = 1e-9; // relative, the unrolled sums round differently
+
+	private final Random random = new Random(4);
+
+	@Test
+	void altitudeModelMatchesKalmanFilter() {
+		double fullError = 0, sequentialError = 0;
+		for (int s = 0; s < SEQUENCES; s++) {
+			var errors = run(new double[][] {{1, 0, 0}, {0, 0, 1}}, false);
+			fullError = Math.max(fullError, errors[0]);
+			sequentialError = Math.max(sequentialError, errors[1]);
+		}
+		assertEquals(0, fullError, TOLERANCE, "against correct");
+		assertEquals(0, sequentialError, TOLERANCE, "against correctSequential");
+	}
+
+	// dense dynamics and observations so every unrolled term takes part
+	@Test
+	void randomDynamicsAndObservationMatchKalmanFilter() {
+		double error = 0;
+		for (int s = 0; s < SEQUENCES; s++) {
+			double[][] observation = new double[2][3];
+			for (var row : observation) {
+				for (int j = 0; j < 3; j++) row[j] = random.nextGaussian();
+			}
+			var errors = run(observation, true);
+			error = Math.max(error, Math.max(errors[0], errors[1]));
+		}
+		assertEquals(0, error, TOLERANCE);
+	}
+
+	// max relative state difference against KalmanFilter.correct and against correctSequential
+	private double[] run(double[][] observation, boolean denseDynamics) {
+		var unrolled = new KalmanFilter3x2(observation);
+		var full = new KalmanFilter(observation, new double[3][1]);
+		var sequential = new KalmanFilter(observation, new double[3][1]);
+		var noControl = new double[1];
+
+		double[][] dynamics = new double[3][3];
+		double altitude = 0, velocity = 0;
+		double fullError = 0, sequentialError = 0;
+		// the random dynamics are shorter, P grows with them
+		int steps = denseDynamics ? STEPS / 100 : STEPS;
+		for (int i = 0; i < steps; i++) {
+			double dt = 0.01 * (1 + 0.2 * (random.nextDouble() - 0.5));
+			if (denseDynamics) {
+				for (int r = 0; r < 3; r++) {
+					for (int c = 0; c < 3; c++) dynamics[r][c] = (r == c ? 1 : 0) + 0.05 * random.nextGaussian();
+				}
+			} else {
+				dynamics[0][0] = dynamics[1][1] = dynamics[2][2] = 1;
+				dynamics[0][1] = dt;
+				dynamics[0][2] = 0.5 * dt * dt;
+				dynamics[1][2] = dt;
+			}
+
+			double accel = Math.sin(0.001 * i);
+			velocity += accel * dt;
+			altitude += velocity * dt;
+			double r0 = 0.1 + random.nextDouble(), r1 = 0.01 + 0.1 * random.nextDouble();
+			double y0 = altitude + Math.sqrt(r0) * random.nextGaussian();
+			double y1 = accel + Math.sqrt(r1) * random.nextGaussian();
+
+			unrolled.predict(dynamics);
+			unrolled.correct(y0, y1, r0, r1);
+			full.predict(dynamics, noControl);
+			full.correct(MatrixUtils.createColumnRealMatrix(new double[] {y0, y1}),
+					MatrixUtils.createRealDiagonalMatrix(new double[] {r0, r1}));
+			sequential.predict(dynamics, noControl);
+			sequential.correctSequential(new double[] {y0, y1}, new double[] {r0, r1});
+
+			fullError = Math.max(fullError, relativeError(unrolled.state(), full.state()));
+			sequentialError = Math.max(sequentialError, relativeError(unrolled.state(), sequential.state()));
+		}
+		return new double[] {fullError, sequentialError};
+	}
+
+	static double relativeError(double[] actual, double[] expected) {
+		double error = 0;
+		for (int i = 0; i < expected.length; i++) {
+			error = Math.max(error, Math.abs(actual[i] - expected[i]) / Math.max(Math.abs(expected[i]), 1));
+		}
+		return error;
+	}
+}
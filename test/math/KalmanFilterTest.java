@@ -0,0 +1,52 @@
+package math;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.junit.jupiter.api.Test;
+import testing.Allocations;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KalmanFilterTest {
+	private static final int STEPS = 20_000;
+
+	private final Random random = new Random(5);
+	private final double[][] observation = {{1, 0, 0}, {0, 0, 1}};
+	private final double[][] dynamics = {{1, 0.01, 0.00005}, {0, 1, 0.01}, {0, 0, 1}};
+	private final double[] noControl = new double[1], y = new double[2], variance = {0.1, 0.01};
+
+	// diagonal noise, so one row at a time with the Joseph form is the same update as the full inverse
+	@Test
+	void sequentialCorrectMatchesFullInverse() {
+		var full = new KalmanFilter(observation, new double[3][1]);
+		var sequential = new KalmanFilter(observation, new double[3][1]);
+		double error = 0;
+		for (int i = 0; i < STEPS; i++) {
+			y[0] = Math.sin(0.001 * i) + 0.3 * random.nextGaussian();
+			y[1] = 0.1 * random.nextGaussian();
+			full.predict(dynamics, noControl);
+			full.correct(MatrixUtils.createColumnRealMatrix(y), MatrixUtils.createRealDiagonalMatrix(variance));
+			sequential.predict(dynamics, noControl);
+			sequential.correctSequential(y, variance);
+			error = Math.max(error, KalmanFilter3x2Test.relativeError(sequential.state(), full.state()));
+		}
+		assertEquals(0, error, 1e-9);
+	}
+
+	@Test
+	void primitivePathAllocatesNothing() {
+		var filter = new KalmanFilter(observation, new double[3][1]);
+		long allocated = Allocations.of(() -> {
+			for (int i = 0; i < STEPS; i++) {
+				y[0] = random.nextGaussian();
+				y[1] = random.nextGaussian();
+				filter.predict(dynamics, noControl);
+				filter.correctSequential(y, variance);
+				filter.predict(dynamics, noControl);
+				filter.correct(0, y[0], variance[0]);
+			}
+		});
+		assertEquals(0, allocated, "bytes over " + STEPS + " steps");
+	}
+}
@@ -0,0 +1,124 @@
+package math;
+
+import org.junit.jupiter.api.Test;
+import testing.Allocations;
+
+import static drone.DroneConstants.ATTITUDE_GAINS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+Closes PIDBank with MainLoop's gains around a rigid body, one axis at a time, with the attitude error taken
+like MainLoop does (errorVector of target times current').
+ */
+class PIDBankTest {
+	private static final double DT = 0.001;
+	private static final double AUTHORITY = 50; // rad/s^2 per unit of motor power
+	private static final double DISTURBANCE = 1; // rad/s^2, within what the rate loops' I limits can hold
+
+	private final double[] angleError = new double[3], rate = new double[3], output = new double[3];
+
+	@Test
+	void everyAxisSettlesInsideItsOutputLimit() {
+		for (int axis = 0; axis < 3; axis++) closedLoop(axis, 4, 0);
+	}
+
+	// slower, it's the rate loop's integrator that takes the disturbance out
+	@Test
+	void everyAxisRejectsAConstantDisturbance() {
+		for (int axis = 0; axis < 3; axis++) closedLoop(axis, 60, DISTURBANCE);
+	}
+
+	@Test
+	void nanInputZeroesTheAxisThenRecovers() {
+		var pid = new PIDBank(ATTITUDE_GAINS);
+		angleError[0] = angleError[1] = angleError[2] = 0.1;
+		for (int i = 0; i < 100; i++) pid.update(DT, angleError, rate, output);
+
+		angleError[0] = Double.NaN;
+		rate[1] = Double.NaN;
+		pid.update(DT, angleError, rate, output);
+		assertEquals(0, output[0], "roll after a NaN error");
+		assertEquals(0, output[1], "pitch after a NaN rate");
+		assertTrue(Double.isFinite(output[2]), "yaw is untouched");
+
+		angleError[0] = 0.1;
+		rate[1] = 0;
+		for (int i = 0; i < 100; i++) pid.update(DT, angleError, rate, output);
+		assertTrue(output[0] > 0 && output[1] > 0, "recovered to " + output[0] + ", " + output[1]);
+	}
+
+	// two sets that give outputs of 1x and 4x the error, a mix of them shows up as 2x
+	@Test
+	void gainSwapsFromAnotherThreadAreNeverSeenHalfApplied() throws InterruptedException {
+		var single = uniform(1);
+		var doubled = uniform(2);
+		var pid = new PIDBank(single);
+		var swapper = Thread.ofPlatform().daemon().start(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				pid.setGains(doubled);
+				pid.setGains(single);
+			}
+		});
+
+		angleError[0] = angleError[1] = angleError[2] = 0.01;
+		int torn = 0;
+		for (int i = 0; i < 200_000; i++) {
+			pid.update(DT, angleError, rate, output);
+			double first = output[0] / angleError[0];
+			for (int axis = 0; axis < 3; axis++) {
+				double scale = output[axis] / angleError[axis];
+				if (Math.abs(scale - first) > 1e-9 || (Math.abs(scale - 1) > 1e-9 && Math.abs(scale - 4) > 1e-9))
+					torn++;
+			}
+		}
+		swapper.interrupt();
+		swapper.join();
+		assertEquals(0, torn, "updates that saw half a gain swap");
+	}
+
+	@Test
+	void updateAllocatesNothing() {
+		var pid = new PIDBank(ATTITUDE_GAINS);
+		assertEquals(0, Allocations.of(() -> {
+			for (int i = 0; i < 100_000; i++) {
+				angleError[i % 3] = 0.01 * Math.sin(i * 0.01);
+				rate[i % 3] = 0.1 * Math.cos(i * 0.01);
+				pid.update(DT, angleError, rate, output);
+			}
+		}), "bytes allocated by 100000 updates");
+	}
+
+	// starts 0.2 rad off about axis and has to be within 1 mrad after the given time
+	private void closedLoop(int axis, double seconds, double disturbance) {
+		var pid = new PIDBank(ATTITUDE_GAINS);
+		double outputLimit = ATTITUDE_GAINS.axis(axis).rate().outputLimit();
+		var target = new MutableQuaternion().setIdentity();
+		var current = new MutableQuaternion();
+		var error = new MutableQuaternion();
+		var errorVector = new MutableVector3();
+
+		double angle = 0.2, angularRate = 0, maxOutput = 0;
+		for (int i = 0; i < seconds / DT; i++) {
+			current.setAxisAngle(angle, axis == 0 ? 1 : 0, axis == 1 ? 1 : 0, axis == 2 ? 1 : 0);
+			error.mulConj(target, current).errorVector(errorVector);
+			angleError[0] = errorVector.x;
+			angleError[1] = errorVector.y;
+			angleError[2] = errorVector.z;
+			rate[0] = rate[1] = rate[2] = 0;
+			rate[axis] = angularRate;
+			pid.update(DT, angleError, rate, output);
+
+			maxOutput = Math.max(maxOutput, Math.abs(output[axis]));
+			angularRate += (AUTHORITY * output[axis] + disturbance) * DT;
+			angle += angularRate * DT;
+		}
+		assertEquals(0, angle, 1e-3, "axis " + axis + " after " + seconds + " s");
+		assertTrue(maxOutput <= outputLimit, "axis " + axis + " output " + maxOutput + " over its limit " + outputLimit);
+	}
+
+	private static PIDBank.GainSet uniform(double kP) {
+		var axis = new PIDBank.AxisGains(PIDBank.Gains.of(kP, 0, 0), PIDBank.Gains.of(kP, 0, 0));
+		return new PIDBank.GainSet(axis, axis, axis);
+	}
+}
@@ -0,0 +1,66 @@
+package pose;
+
+import org.junit.jupiter.api.Test;
+import testing.Allocations;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// the steady state gain mode next to the full filter on the same noisy climb
+class AltitudeFuserTest {
+	private static final double JERK_VARIANCE = 1;
+	private static final double ALTITUDE_VARIANCE = 0.01, ACCEL_VARIANCE = 0.0025;
+	private static final int STEPS = 20_000; // per rate, compared over the last quarter
+
+	private final Random random = new Random(6);
+	private final AltitudeFuser full = new AltitudeFuser(JERK_VARIANCE);
+	private final AltitudeFuser steady = new AltitudeFuser(JERK_VARIANCE);
+	private double time;
+
+	// paced like a loop so the gains solved in the background come back while it runs, and the rate
+	// changes twice so the mode has to re-engage at a new dt
+	@Test
+	void steadyStateEngagesAndAgreesWithTheFullFilter() {
+		steady.enableSteadyState(0.01);
+		for (double rate : new double[] {1000, 50, 200}) {
+			int steadyUpdates = 0;
+			double difference = 0;
+			for (int i = 0; i < STEPS; i++) {
+				update(1 / rate);
+				if (steady.inSteadyState()) steadyUpdates++;
+				if (i >= STEPS * 3 / 4) difference = Math.max(difference, difference());
+				LockSupport.parkNanos(20_000);
+			}
+			assertTrue(steadyUpdates >= STEPS / 2, "steady state updates at " + rate + " Hz: " + steadyUpdates);
+			assertEquals(0, difference, 1e-3, "difference to the full filter at " + rate + " Hz");
+		}
+	}
+
+	@Test
+	void steadyStateUpdatesAllocateNothing() {
+		steady.enableSteadyState(0.01);
+		for (int i = 0; i < 100_000; i++) update(0.02);
+		assertEquals(0, Allocations.of(() -> {
+			for (int i = 0; i < 20_000; i++) update(0.02);
+		}), "bytes allocated by 20000 updates");
+	}
+
+	// both fusers on the same measurement of a slow sinusoidal climb
+	private void update(double dt) {
+		time += dt;
+		double altitude = 10 * Math.sin(0.2 * time), accel = -0.4 * Math.sin(0.2 * time);
+		double measuredAltitude = altitude + Math.sqrt(ALTITUDE_VARIANCE) * random.nextGaussian();
+		double measuredAccel = accel + Math.sqrt(ACCEL_VARIANCE) * random.nextGaussian();
+		full.update(dt, measuredAccel, ACCEL_VARIANCE, measuredAltitude, ALTITUDE_VARIANCE);
+		steady.update(dt, measuredAccel, ACCEL_VARIANCE, measuredAltitude, ALTITUDE_VARIANCE);
+	}
+
+	private double difference() {
+		return Math.max(Math.abs(full.altitude() - steady.altitude()),
+				Math.max(Math.abs(full.verticalVelocity() - steady.verticalVelocity()),
+						Math.abs(full.verticalAccel() - steady.verticalAccel())));
+	}
+}
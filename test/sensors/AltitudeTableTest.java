@@ -0,0 +1,40 @@
+package sensors;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// the table against its exact formula for references from 70 to 110 kPa, at off grid pressures from below
+// the table to above it so both the table and pow are covered
+class AltitudeTableTest {
+	@Test
+	void referencePressureIsExactlyZero() {
+		for (double reference = 70_000; reference <= 110_000; reference += 2_500) {
+			assertEquals(0.0, new AltitudeTable(reference).altitude(reference), "at " + reference + " Pa");
+		}
+	}
+
+	@Test
+	void altitudeWithinAMillimetreOfTheFormula() {
+		for (double reference = 70_000; reference <= 110_000; reference += 2_500) {
+			var table = new AltitudeTable(reference);
+			for (double pressure = 0.25 * reference; pressure < 1.15 * reference; pressure += 7.3) {
+				assertEquals(table.exactAltitude(pressure), table.altitude(pressure), 0.001,
+						pressure + " Pa above " + reference + " Pa");
+			}
+		}
+	}
+
+	// the exact slope is the derivative of the exact formula, by central difference
+	@Test
+	void slopeFollowsTheFormula() {
+		for (double reference = 70_000; reference <= 110_000; reference += 2_500) {
+			var table = new AltitudeTable(reference);
+			for (double pressure = 0.25 * reference; pressure < 1.15 * reference; pressure += 7.3) {
+				double exactSlope = (table.exactAltitude(pressure + 0.01) - table.exactAltitude(pressure - 0.01)) / 0.02;
+				assertEquals(0, (table.slope(pressure) - exactSlope) / Math.max(Math.abs(exactSlope), 1), 1e-3,
+						pressure + " Pa above " + reference + " Pa");
+			}
+		}
+	}
+}
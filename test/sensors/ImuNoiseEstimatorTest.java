@@ -0,0 +1,131 @@
+package sensors;
+
+import math.Vector3;
+import org.junit.jupiter.api.Test;
+import testing.Allocations;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+MPU6050's online noise and bias estimate against a simulated IMU with known noise and bias, calibrated from
+paced reads the way the loop reads it, flat out ones mostly see the same latched sample again.
+ */
+class ImuNoiseEstimatorTest {
+	private static final double GYRO_SD = 0.01, ACCEL_SD = 0.05; // rad/s, m/s^2
+	private static final double GYRO_BIAS_X = 0.03, ACCEL_OFFSET_X = 0.3;
+
+	// what the simulated IMU is doing, set by the tests
+	private volatile double yawRate, wobble, biasDrift;
+	private final Random random = new Random(24);
+	private final ImuSample sample = new ImuSample();
+
+	@Test
+	void measuresTheNoiseAndRemovesTheBias() throws InterruptedException {
+		try (var imu = calibrated()) {
+			var noise = imu.noise();
+			assertEquals(GYRO_SD, Math.sqrt(noise.gyroVariance(0)), 0.1 * GYRO_SD, "gyro sd");
+			assertEquals(ACCEL_SD, Math.sqrt(noise.accelVariance(0)), 0.1 * ACCEL_SD, "accel sd");
+			assertEquals(0, mean(imu, 2000, 0), 0.002, "gyro x bias removed");
+			assertEquals(0, mean(imu, 2000, 3), 0.01, "accel x offset removed");
+		}
+	}
+
+	// a steady turn is as smooth as sitting still, the rate must stay in the readings. 0.02 rad/s is only about
+	// 3 sigma of the short window's mean past the bias band, a rare window still passes there, too few to
+	// move the bias, which the gyro z after the turn shows
+	@Test
+	void steadyTurnsAreNotTakenForBias() throws InterruptedException {
+		try (var imu = calibrated()) {
+			var noise = imu.noise();
+			for (double rate : new double[] {0.02, 0.05, 0.5}) {
+				yawRate = rate;
+				run(imu, 200); // past the detection window
+				long before = noise.stationarySamples();
+				assertEquals(rate, mean(imu, 2000, 2), 0.003, "yaw " + rate + " rad/s reads as a turn");
+				long added = noise.stationarySamples() - before;
+				assertTrue(added <= 2000 / 100, "yaw " + rate + " rad/s stationary samples: " + added);
+				yawRate = 0;
+				run(imu, 200);
+				assertEquals(0, mean(imu, 2000, 2), 0.002, "gyro z after yaw " + rate + " rad/s");
+			}
+		}
+	}
+
+	@Test
+	void wobbleIsNotStationary() throws InterruptedException {
+		try (var imu = calibrated()) {
+			wobble = 1.5;
+			run(imu, 200);
+			long before = imu.noise().stationarySamples();
+			run(imu, 2000);
+			assertEquals(0, imu.noise().stationarySamples() - before, "stationary samples");
+		}
+	}
+
+	// bias drifting with temperature while sitting still
+	@Test
+	void followsSlowBiasDrift() throws InterruptedException {
+		try (var imu = calibrated()) {
+			for (int i = 1; i <= 100; i++) {
+				biasDrift = 0.004 * i / 100;
+				run(imu, 50);
+			}
+			run(imu, 2000);
+			assertEquals(0, mean(imu, 2000, 0), 0.002, "gyro x after 0.004 rad/s drift");
+		}
+	}
+
+	@Test
+	void readAllocatesNothing() throws InterruptedException {
+		try (var imu = calibrated()) {
+			for (int i = 0; i < 20_000; i++) imu.read(sample);
+			assertEquals(0, Allocations.of(() -> {
+				for (int i = 0; i < 20_000; i++) imu.read(sample);
+			}), "bytes allocated by 20000 reads");
+		}
+	}
+
+	private MPU6050 calibrated() throws InterruptedException {
+		var bus = new SimulatedBus(BusTiming.INSTANT);
+		var imu = new MPU6050(bus.mpu6050((time, out) -> {
+			out.gx = GYRO_BIAS_X + biasDrift + wobble * Math.sin(20 * time) + GYRO_SD * random.nextGaussian();
+			out.gy = GYRO_SD * random.nextGaussian();
+			out.gz = yawRate + GYRO_SD * random.nextGaussian();
+			out.ax = ACCEL_OFFSET_X + ACCEL_SD * random.nextGaussian();
+			out.ay = ACCEL_SD * random.nextGaussian();
+			out.az = MPU6050.G + ACCEL_SD * random.nextGaussian();
+			out.temperature = 25;
+		}));
+		imu.startCalibration(Vector3.K, 1000);
+		run(imu, 3000);
+		assertFalse(imu.calibrating(), "calibration done");
+		return imu;
+	}
+
+	// reads at about the chip's 1kHz accel rate
+	private void run(MPU6050 imu, int reads) throws InterruptedException {
+		for (int i = 0; i < reads; i++) {
+			imu.read(sample);
+			Thread.sleep(0, 500_000);
+		}
+	}
+
+	private double mean(MPU6050 imu, int reads, int channel) throws InterruptedException {
+		double sum = 0;
+		for (int i = 0; i < reads; i++) {
+			imu.read(sample);
+			sum += switch (channel) {
+				case 0 -> sample.gx;
+				case 1 -> sample.gy;
+				case 2 -> sample.gz;
+				default -> sample.ax;
+			};
+			Thread.sleep(0, 500_000);
+		}
+		return sum / reads;
+	}
+}
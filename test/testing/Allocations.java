@@ -0,0 +1,21 @@
+package testing;
+
+import java.lang.management.ManagementFactory;
+
+// heap allocation of the calling thread, for the tests that check a hot path allocates nothing
+public final class Allocations {
+	private static final int WARMUP_ROUNDS = 3;
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private Allocations() {
+	}
+
+	// bytes body allocates, measured after a few rounds of it so it's compiled and escape analysed
+	public static long of(Runnable body) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) body.run();
+		long before = THREADS.getCurrentThreadAllocatedBytes();
+		body.run();
+		return THREADS.getCurrentThreadAllocatedBytes() - before;
+	}
+}